@@ -0,0 +1,100 @@
+package edu.brunobudris.sdcc.pagerank.benchmark;
+
+import edu.brunobudris.sdcc.pagerank.kernel.RankKernels;
+import edu.brunobudris.sdcc.pagerank.kernel.ScalarRankKernels;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Micro benchmark of the rank vector kernels: every operation runs on the scalar and on the vectorized implementation
+ * over random rank vectors, the best time of several repetitions (after a JIT warm-up) and the speedup are reported.
+ * <p>
+ * Usage: {@code KernelBenchmark sizes=100000,10000000 repetitions=20}
+ * <p>
+ * The JVM must run with --add-modules jdk.incubator.vector, otherwise both implementations are scalar.
+ */
+@Slf4j
+public class KernelBenchmark {
+
+    // the JIT compiles the vector intrinsics only after many invocations
+    private static final int WARMUP = 10;
+    private static final long WARMUP_ELEMENTS = 200_000_000L;
+
+    private final RankKernels scalar = new ScalarRankKernels();
+    private final RankKernels vector = RankKernels.create(true);
+    private final int repetitions;
+
+    // consumed result, prevents dead code elimination
+    private double blackhole;
+
+    public KernelBenchmark(int repetitions) {
+        this.repetitions = repetitions;
+    }
+
+    public static void main(String[] args) {
+        final Map<String, String> options = Stream.of(args)
+                .map(arg -> arg.split("=", 2))
+                .collect(Collectors.toMap(pair -> pair[0], pair -> pair.length > 1 ? pair[1] : ""));
+
+        final var benchmark = new KernelBenchmark(Integer.parseInt(options.getOrDefault("repetitions", "20")));
+        log.info("Scalar kernels: {}, vector kernels: {}", benchmark.scalar.getName(), benchmark.vector.getName());
+
+        final var results = new ArrayList<String>();
+        for (final var size : options.getOrDefault("sizes", "100000,10000000").split(",")) {
+            results.addAll(benchmark.run(Integer.parseInt(size.trim())));
+        }
+
+        log.info("Benchmark results:\n{}", String.join("\n", results));
+    }
+
+    /**
+     * Benchmarks every kernel for a vector size
+     * @param size number of vertices
+     * @return report lines
+     */
+    public List<String> run(int size) {
+        final var random = new Random(size);
+        final var ranks = random.doubles(size).toArray();
+        final var out = random.doubles(size).toArray();
+
+        final var results = new ArrayList<String>();
+        results.add(compare("scale", size, kernels -> {
+            // alternating factors keep the values in range
+            kernels.scale(out, 2.0);
+            kernels.scale(out, 0.5);
+            return out[0];
+        }));
+        results.add(compare("sum", size, kernels -> kernels.sum(ranks)));
+        return results;
+    }
+
+    private String compare(String operation, int elements, ToDoubleFunction<RankKernels> kernel) {
+        final var warmup = (int) Math.max(WARMUP, WARMUP_ELEMENTS / Math.max(elements, 1));
+        final var scalarNanos = measure(scalar, kernel, warmup);
+        final var vectorNanos = measure(vector, kernel, warmup);
+
+        return String.format("%-16s elements=%-10d scalar=%8.3fms vector=%8.3fms speedup=%.2fx", operation, elements,
+                scalarNanos / 1e6, vectorNanos / 1e6, (double) scalarNanos / Math.max(vectorNanos, 1));
+    }
+
+    private long measure(RankKernels kernels, ToDoubleFunction<RankKernels> kernel, int warmup) {
+        for (int i = 0; i < warmup; i++) {
+            blackhole += kernel.applyAsDouble(kernels);
+        }
+
+        var best = Long.MAX_VALUE;
+        for (int i = 0; i < repetitions; i++) {
+            final var start = System.nanoTime();
+            blackhole += kernel.applyAsDouble(kernels);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,284 @@
+package edu.brunobudris.sdcc.pagerank.benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+import edu.brunobudris.sdcc.pagerank.Application;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ExitCodeEvent;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ApplicationListener;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end scale benchmark: for every graph size and worker count, a synthetic graph is generated and served from a
+ * loopback HTTP server, the database is reset and N application instances (each one a full {@code Runner} lifecycle
+ * with a mapper and a reducer) rank the graph concurrently in this JVM. The first instance initializes the database,
+ * the other ones start once the first iteration is ready. The time of every iteration, the rows written per second
+ * and the peak heap of the JVM (all instances together) are reported. A run fails if any instance exits with an
+ * error.
+ * <p>
+ * Usage: {@code ScaleBenchmark db-url=jdbc:postgresql://localhost:5432/benchmark reset=true vertices=10000,100000
+ * workers=1,2,4 model=RMAT degree=8 iterations=3 db-username=pagerank db-password=pagerank [graph.*=...]}
+ * <p>
+ * Every run drops the "public" schema of the database, so the database URL has no default and the reset must be
+ * confirmed with reset=true: use a dedicated database, never the one of a deployment.
+ * <p>
+ * Every "graph.*" or "spring.*" option is passed to the application instances (e.g. graph.engine=SQL).
+ */
+@Slf4j
+public class ScaleBenchmark {
+
+    private static final String GRAPH_PATH = "/graph.gv";
+
+    private final Map<String, String> options;
+    private final String dbUrl;
+    private final String dbUsername;
+    private final String dbPassword;
+
+    public ScaleBenchmark(Map<String, String> options) {
+        if (!options.containsKey("db-url") || options.get("db-url").isBlank()) {
+            throw new IllegalArgumentException("db-url is required, the schema of that database is dropped");
+        }
+        if (!"true".equals(options.get("reset"))) {
+            throw new IllegalArgumentException("reset=true is required: every run drops the public schema of "
+                    + options.get("db-url"));
+        }
+
+        this.options = options;
+        this.dbUrl = options.get("db-url");
+        this.dbUsername = options.getOrDefault("db-username", "pagerank");
+        this.dbPassword = options.getOrDefault("db-password", "pagerank");
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = Stream.of(args)
+                .map(arg -> arg.split("=", 2))
+                .collect(Collectors.toMap(pair -> pair[0], pair -> pair.length > 1 ? pair[1] : ""));
+
+        final var benchmark = new ScaleBenchmark(options);
+        final var results = new ArrayList<String>();
+
+        for (final var vertices : parseList(options.getOrDefault("vertices", "10000"))) {
+            for (final var workers : parseList(options.getOrDefault("workers", "1"))) {
+                results.add(benchmark.run(vertices, workers));
+            }
+        }
+
+        log.info("Benchmark results:\n{}", String.join("\n", results));
+        System.exit(0);
+    }
+
+    /**
+     * A single benchmark run
+     * @param vertices graph cardinality
+     * @param workers number of application instances
+     * @return report line
+     */
+    public String run(int vertices, int workers) throws Exception {
+        final var iterations = Integer.parseInt(options.getOrDefault("iterations", "3"));
+        final var graphFile = Files.createTempFile("pagerank-benchmark-", ".gv");
+
+        try {
+            final var generator = new SyntheticGraphGenerator(
+                    SyntheticGraphGenerator.Model.valueOf(options.getOrDefault("model", "RMAT")),
+                    vertices,
+                    Integer.parseInt(options.getOrDefault("degree", "8")),
+                    Long.parseLong(options.getOrDefault("seed", "1")));
+            final var edges = generator.write(graphFile, SyntheticGraphGenerator.Format.DOT);
+
+            final var server = serve(graphFile);
+            try {
+                resetDatabase();
+                return measure(vertices, edges, workers, iterations, server.getAddress().getPort());
+            } finally {
+                server.stop(0);
+            }
+        } finally {
+            Files.deleteIfExists(graphFile);
+        }
+    }
+
+    private String measure(int vertices, long edges, int workers, int iterations, int port) throws Exception {
+        final var properties = new HashMap<String, Object>();
+        options.forEach((key, value) -> {
+            if (key.startsWith("graph.") || key.startsWith("spring.")) {
+                properties.put(key, value);
+            }
+        });
+        properties.put("graph.url", "http://127.0.0.1:" + port + GRAPH_PATH);
+        properties.put("graph.iteration-limit", iterations);
+        properties.put("spring.datasource.url", dbUrl);
+        properties.put("spring.datasource.username", dbUsername);
+        properties.put("spring.datasource.password", dbPassword);
+        properties.put("spring.main.banner-mode", "off");
+
+        ManagementFactory.getMemoryPoolMXBeans().forEach(pool -> pool.resetPeakUsage());
+
+        // time at which every iteration was seen ready / reduced
+        final var ready = new ConcurrentHashMap<Integer, Long>();
+        final var reduced = new ConcurrentHashMap<Integer, Long>();
+        final var running = new AtomicBoolean(true);
+        // instances that exited with an error (the Runner logs it and closes the context without throwing)
+        final var failures = new AtomicInteger();
+        final var executor = Executors.newFixedThreadPool(workers + 1);
+        final var start = System.nanoTime();
+
+        try {
+            executor.submit(() -> monitor(running, ready, reduced));
+
+            final var instances = new ArrayList<Future<?>>();
+            for (int worker = 0; worker < workers; worker++) {
+                // the context runs the whole ranking while starting and exits when it is done
+                instances.add(executor.submit(() -> new SpringApplicationBuilder(Application.class)
+                        .properties(properties)
+                        .listeners((ApplicationListener<ExitCodeEvent>) event -> failures.incrementAndGet())
+                        .run()));
+
+                // the first instance initializes the database alone, the other ones join the first iteration
+                while (worker == 0 && !ready.containsKey(1) && !instances.get(0).isDone()) {
+                    Thread.sleep(50);
+                }
+            }
+            for (final var instance : instances) {
+                instance.get();
+            }
+        } finally {
+            running.set(false);
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        final var end = System.nanoTime();
+
+        if (failures.get() > 0) {
+            throw new IllegalStateException(failures.get() + " of " + workers + " instances exited with an error");
+        }
+
+        final var peakHeap = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                .sum();
+
+        // iteration #1 becomes ready once the graph is loaded and the database is populated
+        final var computeStart = ready.getOrDefault(1, start);
+        final var times = new TreeMap<Integer, Long>();
+        var previous = computeStart;
+        for (int iteration = 1; iteration <= iterations; iteration++) {
+            final var time = reduced.get(iteration);
+            if (time != null) {
+                times.put(iteration, TimeUnit.NANOSECONDS.toMillis(time - previous));
+                previous = time;
+            }
+        }
+
+        final var rows = countRows();
+        final var computeSeconds = Math.max(end - computeStart, 1) / 1e9;
+
+        return String.format("vertices=%d edges=%d workers=%d load=%.2fs iterations(ms)=%s total=%.2fs"
+                        + " rows/s=%.0f peak-heap-jvm=%dMB",
+                vertices, edges, workers, (computeStart - start) / 1e9, times.values(), (end - start) / 1e9,
+                rows / computeSeconds, peakHeap / (1024 * 1024));
+    }
+
+    private void monitor(AtomicBoolean running, Map<Integer, Long> ready, Map<Integer, Long> reduced) {
+        while (running.get()) {
+            try (final var connection = connect();
+                 final var statement = connection.createStatement();
+                 final var rs = statement.executeQuery("SELECT iteration, ready, reduced FROM iteration")) {
+                final var now = System.nanoTime();
+                while (rs.next()) {
+                    if (rs.getBoolean("ready")) {
+                        ready.putIfAbsent(rs.getInt("iteration"), now);
+                    }
+                    if (rs.getBoolean("reduced")) {
+                        reduced.putIfAbsent(rs.getInt("iteration"), now);
+                    }
+                }
+            } catch (SQLException exception) {
+                // the schema is not created yet
+            }
+
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private long countRows() throws SQLException {
+        long rows = 0;
+        try (final var connection = connect();
+             final var statement = connection.createStatement()) {
+            for (final var table : List.of("page_rank", "map_vote")) {
+                try (final var rs = statement.executeQuery("SELECT COUNT(1) FROM " + table)) {
+                    rs.next();
+                    rows += rs.getLong(1);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private void resetDatabase() throws SQLException {
+        try (final var connection = connect();
+             final var statement = connection.createStatement()) {
+            // Liquibase recreates every table (its own tables included) when the first instance starts
+            statement.execute("DROP SCHEMA public CASCADE");
+            statement.execute("CREATE SCHEMA public");
+        }
+    }
+
+    /**
+     * Loopback stand-in for the remote graph location used by the HttpGraphProvider
+     */
+    private HttpServer serve(Path graphFile) throws IOException {
+        final var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(GRAPH_PATH, exchange -> {
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                // no range support, the provider falls back to a single download
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(Files.size(graphFile)));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+            exchange.sendResponseHeaders(200, Files.size(graphFile));
+            try (final var body = exchange.getResponseBody()) {
+                Files.copy(graphFile, body);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        return server;
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection(dbUrl, dbUsername, dbPassword);
+    }
+
+    private static List<Integer> parseList(String value) {
+        return Stream.of(value.split(",")).map(String::trim).map(Integer::valueOf).toList();
+    }
+}
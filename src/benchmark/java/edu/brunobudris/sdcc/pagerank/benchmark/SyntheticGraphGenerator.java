@@ -0,0 +1,275 @@
+package edu.brunobudris.sdcc.pagerank.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic directed graph generator. Vertex IDs are 0 .. N-1 and self-loops are never produced (the ranked graph
+ * is a simple graph). The output is deterministic for a given seed.
+ * <p>
+ * Usage: {@code SyntheticGraphGenerator model=RMAT vertices=100000 degree=8 seed=1 format=DOT output=graph.gv}
+ */
+@Slf4j
+public class SyntheticGraphGenerator {
+
+    public enum Model {
+        /**
+         * Recursive matrix (Chakrabarti et al.), skewed web-like degree distribution. Duplicate edges are redrawn,
+         * like out of range vertices and self-loops, so that the graph has exactly "vertices x degree" edges.
+         */
+        RMAT,
+        /**
+         * Barabasi-Albert preferential attachment, every new vertex links to "degree" existing vertices
+         */
+        BARABASI_ALBERT,
+        /**
+         * Erdos-Renyi style uniform random graph, every vertex links to "degree" distinct random vertices
+         */
+        ERDOS_RENYI
+    }
+
+    public enum Format {
+        /**
+         * Graphviz DOT, as consumed by the application
+         */
+        DOT,
+        /**
+         * One "source target" line per edge
+         */
+        EDGE_LIST
+    }
+
+    // R-MAT quadrant probabilities (d = 1 - a - b - c)
+    private static final double RMAT_A = 0.57;
+    private static final double RMAT_B = 0.19;
+    private static final double RMAT_C = 0.19;
+
+    private final Model model;
+    private final int vertices;
+    private final int degree;
+    private final SplittableRandom random;
+
+    public SyntheticGraphGenerator(Model model, int vertices, int degree, long seed) {
+        if (vertices < 2 || degree < 1 || degree >= vertices) {
+            throw new IllegalArgumentException("At least 2 vertices and 1 <= degree < vertices are required");
+        }
+        this.model = model;
+        this.vertices = vertices;
+        this.degree = degree;
+        this.random = new SplittableRandom(seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Map<String, String> options = Stream.of(args)
+                .map(arg -> arg.split("=", 2))
+                .collect(Collectors.toMap(pair -> pair[0], pair -> pair.length > 1 ? pair[1] : ""));
+
+        final var generator = new SyntheticGraphGenerator(
+                Model.valueOf(options.getOrDefault("model", "RMAT")),
+                Integer.parseInt(options.getOrDefault("vertices", "10000")),
+                Integer.parseInt(options.getOrDefault("degree", "8")),
+                Long.parseLong(options.getOrDefault("seed", "1")));
+
+        generator.write(Path.of(options.getOrDefault("output", "graph.gv")),
+                Format.valueOf(options.getOrDefault("format", "DOT")));
+    }
+
+    /**
+     * Generates the graph into a file
+     * @param path output file
+     * @param format output format
+     * @return the number of generated edges
+     * @throws IOException if the file cannot be written
+     */
+    public long write(Path path, Format format) throws IOException {
+        try (final var writer = Files.newBufferedWriter(path, StandardCharsets.US_ASCII)) {
+            final var edges = write(writer, format);
+            log.info("Generated {} graph: {} vertices, {} edges, {}", model, vertices, edges, path);
+            return edges;
+        }
+    }
+
+    private long write(BufferedWriter writer, Format format) throws IOException {
+        final var sink = new EdgeWriter(writer, format);
+
+        if (format == Format.DOT) {
+            writer.write("digraph G {\n");
+            // vertices are declared explicitly, so that vertices without edges are part of the graph too
+            for (int vertex = 0; vertex < vertices; vertex++) {
+                writer.write("  " + vertex + ";\n");
+            }
+        }
+
+        switch (model) {
+            case RMAT -> rmat(sink);
+            case BARABASI_ALBERT -> barabasiAlbert(sink);
+            case ERDOS_RENYI -> erdosRenyi(sink);
+        }
+
+        if (format == Format.DOT) {
+            writer.write("}\n");
+        }
+        return sink.count;
+    }
+
+    private void rmat(EdgeWriter sink) throws IOException {
+        final var scale = 64 - Long.numberOfLeadingZeros(vertices - 1L);
+        final var edges = (long) vertices * degree;
+        final var generated = new EdgeSet(edges);
+
+        for (long edge = 0; edge < edges; ) {
+            long source = 0;
+            long target = 0;
+
+            for (int level = 0; level < scale; level++) {
+                final var p = random.nextDouble();
+                source <<= 1;
+                target <<= 1;
+
+                if (p < RMAT_A) {
+                    continue;
+                } else if (p < RMAT_A + RMAT_B) {
+                    target |= 1;
+                } else if (p < RMAT_A + RMAT_B + RMAT_C) {
+                    source |= 1;
+                } else {
+                    source |= 1;
+                    target |= 1;
+                }
+            }
+
+            // the recursive matrix is a power of two wide, out of range vertices, self-loops and duplicates are
+            // redrawn (the reported edge count is the one of the loaded graph)
+            if (source < vertices && target < vertices && source != target
+                    && generated.add(source * vertices + target)) {
+                sink.edge(source, target);
+                edge++;
+            }
+        }
+    }
+
+    private void barabasiAlbert(EdgeWriter sink) throws IOException {
+        // every edge endpoint, a uniform pick from it is a pick proportional to the degree
+        final var endpoints = new int[(int) Math.min(Integer.MAX_VALUE - 8, 2L * vertices * degree)];
+        var size = 0;
+
+        // seed clique of degree + 1 vertices
+        for (int source = 0; source <= degree; source++) {
+            for (int target = 0; target <= degree; target++) {
+                if (source != target) {
+                    sink.edge(source, target);
+                    if (size + 2 <= endpoints.length) {
+                        endpoints[size++] = source;
+                        endpoints[size++] = target;
+                    }
+                }
+            }
+        }
+
+        final var targets = new HashSet<Integer>();
+        for (int source = degree + 1; source < vertices; source++) {
+            targets.clear();
+
+            while (targets.size() < degree) {
+                targets.add(endpoints[random.nextInt(size)]);
+            }
+
+            for (final var target : targets) {
+                sink.edge(source, target);
+                if (size + 2 <= endpoints.length) {
+                    endpoints[size++] = source;
+                    endpoints[size++] = target;
+                }
+            }
+        }
+    }
+
+    private void erdosRenyi(EdgeWriter sink) throws IOException {
+        final var targets = new HashSet<Integer>();
+
+        // each vertex gets "degree" distinct random targets, m = n * degree
+        for (int source = 0; source < vertices; source++) {
+            targets.clear();
+
+            while (targets.size() < degree) {
+                final var target = random.nextInt(vertices);
+                if (target != source) {
+                    targets.add(target);
+                }
+            }
+
+            for (final var target : targets) {
+                sink.edge(source, target);
+            }
+        }
+    }
+
+    /**
+     * Open addressing set of edge keys (source x vertices + target) on a primitive array, at most half full: 16 bytes
+     * per edge instead of a boxed Long and a hash map node per edge
+     */
+    private static class EdgeSet {
+
+        private final long[] keys;
+        private final int mask;
+
+        private EdgeSet(long capacity) {
+            final var size = Long.highestOneBit(Math.max(2 * capacity - 1, 1)) << 1;
+            if (size > 1 << 30) {
+                throw new IllegalArgumentException("Too many edges: " + capacity);
+            }
+            this.keys = new long[(int) size];
+            this.mask = (int) size - 1;
+        }
+
+        /**
+         * @return true if the key was not in the set
+         */
+        private boolean add(long key) {
+            // 0 marks an empty slot
+            final var stored = key + 1;
+            var slot = (int) ((stored * 0x9E3779B97F4A7C15L) >>> 33) & mask;
+
+            while (keys[slot] != 0) {
+                if (keys[slot] == stored) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = stored;
+            return true;
+        }
+    }
+
+    private static class EdgeWriter {
+
+        private final Writer writer;
+        private final Format format;
+        private long count;
+
+        private EdgeWriter(Writer writer, Format format) {
+            this.writer = writer;
+            this.format = format;
+        }
+
+        private void edge(long source, long target) throws IOException {
+            if (format == Format.DOT) {
+                writer.write("  " + source + " -> " + target + ";\n");
+            } else {
+                writer.write(source + " " + target + "\n");
+            }
+            count++;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package edu.brunobudris.sdcc.pagerank.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Writer stage of the map and reduce pipelines: items queued by the compute stage are written by a background thread
+ * in batches, so that computing and writing overlap. A batch is written when its weight (e.g. the number of rows)
+ * reaches the batch size, when its first item has been waiting for the flush interval, or at the end of the stream;
+ * items are never split across batches. The queue is bounded: a compute stage faster than the database blocks until
+ * the writer catches up (backpressure).
+ * @param <T> item type
+ */
+@Slf4j
+public class BatchWriter<T> implements AutoCloseable {
+
+    private static final Object END = new Object();
+    private static final long POLL_MILLIS = 100;
+    // a compute stage slower than the writer does not produce small batches, nor leaves items unwritten for long
+    private static final long FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS);
+
+    private final String name;
+    private final BlockingQueue<Object> queue;
+    private final int batchSize;
+    private final ToIntFunction<T> weigher;
+    private final Consumer<List<T>> sink;
+    private final Thread thread;
+
+    private volatile Throwable failure;
+
+    /**
+     * Starts the writer thread
+     * @param name thread name
+     * @param capacity maximum number of queued items
+     * @param batchSize weight from which a batch is written (it may be exceeded by its last item)
+     * @param weigher weight of an item
+     * @param sink writes a batch
+     */
+    public BatchWriter(String name, int capacity, int batchSize, ToIntFunction<T> weigher, Consumer<List<T>> sink) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.weigher = weigher;
+        this.sink = sink;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues an item, blocks while the queue is full
+     * @param item item to be written
+     * @throws IllegalStateException if a previous batch could not be written
+     */
+    public void write(T item) throws InterruptedException {
+        offer(item);
+    }
+
+    /**
+     * Writes the queued items and stops the writer thread
+     * @throws IllegalStateException if a batch could not be written
+     */
+    @Override
+    public void close() throws InterruptedException {
+        offer(END);
+        thread.join();
+        checkFailure();
+    }
+
+    private void offer(Object item) throws InterruptedException {
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            // the writer is slower than the compute stage, or it is dead
+            checkFailure();
+        }
+        checkFailure();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void run() {
+        final var batch = new ArrayList<T>();
+        var weight = 0;
+        var deadline = 0L;
+
+        try {
+            while (true) {
+                final var item = batch.isEmpty()
+                        ? queue.take()
+                        : queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+                if (item == null) {
+                    // timeout: the first item of the batch waited for the flush interval
+                    flush(batch);
+                    weight = 0;
+                    continue;
+                }
+
+                if (item == END) {
+                    flush(batch);
+                    return;
+                }
+
+                if (batch.isEmpty()) {
+                    deadline = System.nanoTime() + FLUSH_NANOS;
+                }
+                batch.add((T) item);
+                weight += weigher.applyAsInt((T) item);
+
+                if (weight >= batchSize) {
+                    flush(batch);
+                    weight = 0;
+                }
+            }
+        } catch (InterruptedException exception) {
+            failure = exception;
+        } catch (Throwable throwable) {
+            // errors included, otherwise the compute stage would wait forever for a dead writer
+            log.error("Writer {} failed", name, throwable);
+            failure = throwable;
+        } finally {
+            if (failure != null) {
+                // unblocks the compute stage, it fails on its next write
+                queue.clear();
+            }
+        }
+    }
+
+    private void flush(List<T> batch) {
+        if (!batch.isEmpty()) {
+            sink.accept(batch);
+            batch.clear();
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("Writer " + name + " failed", failure);
+        }
+    }
+}
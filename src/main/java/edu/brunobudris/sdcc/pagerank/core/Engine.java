@@ -0,0 +1,19 @@
+package edu.brunobudris.sdcc.pagerank.core;
+
+/**
+ * PageRank computation strategy
+ */
+public enum Engine {
+    /**
+     * Java mappers and reducers exchanging map votes through the database
+     */
+    MAPREDUCE,
+    /**
+     * Every iteration is a single set-based statement executed by the database
+     */
+    SQL,
+    /**
+     * Approximate ranks estimated by random walks on a single node, only the last iteration has ranks
+     */
+    MONTE_CARLO
+}
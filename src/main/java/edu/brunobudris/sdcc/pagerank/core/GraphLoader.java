@@ -0,0 +1,67 @@
+package edu.brunobudris.sdcc.pagerank.core;
+
+import edu.brunobudris.sdcc.pagerank.io.CompressedAdjacency;
+import edu.brunobudris.sdcc.pagerank.io.DotGraphBuilder;
+import edu.brunobudris.sdcc.pagerank.io.HttpGraphProvider;
+import edu.brunobudris.sdcc.pagerank.io.VertexOrdering;
+import edu.brunobudris.sdcc.pagerank.model.Job;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jgrapht.Graph;
+import org.jgrapht.graph.DefaultEdge;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Fetches and parses the graph of a job, relabelling its vertices when a vertex ordering is configured. Graphs are
+ * held as compressed adjacency lists, a JGraphT graph is only built to compute the vertex ordering.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class GraphLoader {
+
+    private final HttpGraphProvider graphProvider;
+
+    @Value("${graph.ordering}")
+    private VertexOrdering.Strategy ordering;
+
+    /**
+     * @return true if the vertices of the loaded graphs are relabelled
+     */
+    public boolean isRelabelling() {
+        return ordering != VertexOrdering.Strategy.NONE;
+    }
+
+    /**
+     * @param job the job whose graph is loaded
+     * @return the graph to be ranked and the vertex ordering applied to it (null if vertices were not relabelled)
+     */
+    public LoadedGraph load(Job job) throws IOException {
+        log.info("Loading the graph of job # {}", job.getJobId());
+        final LoadedGraph loaded;
+
+        try (final var data = graphProvider.provide(job.getGraphUrl())) {
+            if (!isRelabelling()) {
+                // streamed into the compressed lists
+                loaded = new LoadedGraph(DotGraphBuilder.buildCompressed(data), null);
+            } else {
+                final Graph<Long, DefaultEdge> graph = DotGraphBuilder.build(data);
+                // vertices are relabelled before anything is persisted, ranks are stored with the new IDs
+                final var vertexOrdering = VertexOrdering.of(graph, ordering);
+                loaded = new LoadedGraph(CompressedAdjacency.of(vertexOrdering.relabel(graph)), vertexOrdering);
+            }
+        }
+
+        final var graph = loaded.graph();
+        log.info("Graph of job # {}: {} vertices, {} edges, {} bytes ({} bits per edge)", job.getJobId(),
+                graph.vertexCount(), graph.edgeCount(), graph.sizeInBytes(),
+                String.format("%.1f", 8.0 * graph.sizeInBytes() / Math.max(1, graph.edgeCount())));
+        return loaded;
+    }
+
+    public record LoadedGraph(CompressedAdjacency graph, VertexOrdering ordering) {
+    }
+}
@@ -1,17 +1,26 @@
 package edu.brunobudris.sdcc.pagerank.core;
 
+import edu.brunobudris.sdcc.pagerank.io.CheckpointStore;
+import edu.brunobudris.sdcc.pagerank.io.CompressedAdjacency;
+import edu.brunobudris.sdcc.pagerank.io.VertexOrdering;
+import edu.brunobudris.sdcc.pagerank.model.Edge;
+import edu.brunobudris.sdcc.pagerank.model.Job;
+import edu.brunobudris.sdcc.pagerank.repository.EdgeRepository;
 import edu.brunobudris.sdcc.pagerank.repository.IterationRepository;
+import edu.brunobudris.sdcc.pagerank.repository.JobRepository;
 import edu.brunobudris.sdcc.pagerank.repository.PageRankRepository;
+import edu.brunobudris.sdcc.pagerank.repository.VertexLabelRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.jgrapht.Graph;
-import org.jgrapht.graph.DefaultEdge;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Component;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
 
 @Component
 @RequiredArgsConstructor
@@ -20,34 +29,51 @@ public class Initializer {
 
     private final IterationRepository iterationRepository;
     private final PageRankRepository pageRankRepository;
+    private final EdgeRepository edgeRepository;
+    private final VertexLabelRepository vertexLabelRepository;
+    private final JobRepository jobRepository;
+    private final CheckpointStore checkpointStore;
 
-    @Value("${graph.iteration-limit}")
-    private Integer iterationLimit;
+    @Value("${graph.engine}")
+    private Engine engine;
+
+    @Value("${graph.batch-size}")
+    private Integer batchSize;
+
+    @Value("${graph.convergence-threshold}")
+    private Double convergenceThreshold;
 
     /**
      * Database population
+     * @param job the job to be initialized
      * @param graph the graph to be ranked
      */
-    public void init(Graph<Long, DefaultEdge> graph) {
-        var count = iterationRepository.countIteration();
+    public void init(Job job, CompressedAdjacency graph) {
+        final var jobId = job.getJobId();
+        // the job configured by the application properties is not submitted through the "job" table
+        jobRepository.insertIfAbsent(job);
+
+        var count = iterationRepository.countIteration(jobId);
 
         if (count < 1) {
-            // the "iteration" table is empty
-            final var inserted = iterationRepository.insert(iterationLimit);
+            // the job has no iteration yet: a new run, the checkpoints of a previous run are stale
+            checkpointStore.clear(jobId);
+            final var inserted = iterationRepository.insert(jobId, job.getIterationLimit(),
+                    UUID.randomUUID().toString());
 
-            if (inserted.length != iterationLimit) {
+            if (inserted.length != job.getIterationLimit()) {
                 log.info("Mismatch between inserted iteration rows and statements");
             }
-        } else if (iterationRepository.isAllReduced()) {
+        } else if (iterationRepository.isAllReduced(jobId)) {
             // the previous ranking is fully completed
-            throw new RuntimeException("All iterations completed, no work left (drop table)");
+            throw new RuntimeException("All iterations of job # " + jobId + " completed, no work left");
         }
 
-        count = pageRankRepository.countRanks();
+        count = pageRankRepository.countRanks(jobId);
         if (count < 1) {
-            // the "page_rank" table is empty
-            final var vertexSet = graph.vertexSet();
-            final var graphCardinality = vertexSet.size();
+            // the job has no rank yet
+            final var vertices = graph.vertices();
+            final var graphCardinality = vertices.size();
             // scale is equal to the db column datatype scale
             final var value = BigDecimal.ONE.setScale(30).divide(new BigDecimal(graphCardinality), RoundingMode.DOWN);
 
@@ -58,7 +84,10 @@ public class Initializer {
             }
 
             try {
-                final var inserted = pageRankRepository.insert(vertexSet, value);
+                // adaptive mode: the initial ranks are also the first latest ranks
+                final var inserted = convergenceThreshold > 0
+                        ? pageRankRepository.insertTrackingLatest(jobId, vertices, value)
+                        : pageRankRepository.insert(jobId, vertices, value);
 
                 if (inserted.length != graphCardinality) {
                     throw new RuntimeException("Mismatch between inserted ranks and statements");
@@ -68,7 +97,71 @@ public class Initializer {
             }
         }
 
+        if (engine == Engine.SQL && edgeRepository.countVertices(jobId) < graph.vertexCount()) {
+            // the "vertex" and "edge" tables are empty or partially loaded
+            loadEdges(jobId, graph);
+        }
+
         // we mark the first PageRank algorithm iteration as ready to be processed (idempotent)
-        iterationRepository.markIterationAsReady(1);
+        iterationRepository.markIterationAsReady(jobId, 1);
+    }
+
+    /**
+     * Stores the permutation table of a relabelled graph, so that ranks can be translated back to the vertex IDs of
+     * the DOT file (idempotent)
+     * @param jobId job ID
+     * @param ordering the vertex ordering applied to the graph
+     */
+    public void initLabels(Long jobId, VertexOrdering ordering) {
+        final var originalIds = ordering.getOriginalIds();
+
+        if (vertexLabelRepository.countLabels(jobId) >= originalIds.length) {
+            // the "vertex_label" table is already populated
+            return;
+        }
+
+        for (int from = 0; from < originalIds.length; from += batchSize) {
+            vertexLabelRepository.insert(jobId, originalIds, from, Math.min(from + batchSize, originalIds.length));
+        }
+        log.info("Stored {} vertex labels", originalIds.length);
+    }
+
+    /**
+     * Loads the edge list and the vertex out-degrees for the SQL engine. Edges are inserted before vertices, so a
+     * complete "vertex" table implies a complete "edge" table. Idempotent, several nodes may load concurrently.
+     * @param jobId job ID
+     * @param graph the graph to be ranked
+     */
+    private void loadEdges(Long jobId, CompressedAdjacency graph) {
+        log.info("Loading {} edges", graph.edgeCount());
+        final var edges = new ArrayList<Edge>(batchSize);
+
+        for (int vertex = 0; vertex < graph.vertexCount(); vertex++) {
+            final var source = graph.vertexAt(vertex);
+            final var successors = graph.successorsAt(vertex);
+
+            while (successors.hasNext()) {
+                edges.add(new Edge(source, successors.nextLong()));
+
+                if (edges.size() == batchSize) {
+                    edgeRepository.insertEdges(jobId, edges);
+                    edges.clear();
+                }
+            }
+        }
+        edgeRepository.insertEdges(jobId, edges);
+
+        final var outDegrees = new HashMap<Long, Integer>(batchSize);
+
+        for (int vertex = 0; vertex < graph.vertexCount(); vertex++) {
+            outDegrees.put(graph.vertexAt(vertex), graph.successorsAt(vertex).size());
+
+            if (outDegrees.size() == batchSize) {
+                edgeRepository.insertVertices(jobId, outDegrees);
+                outDegrees.clear();
+            }
+        }
+        edgeRepository.insertVertices(jobId, outDegrees);
+        log.info("Loaded {} vertices", graph.vertexCount());
     }
 }
@@ -0,0 +1,116 @@
+package edu.brunobudris.sdcc.pagerank.core;
+
+import edu.brunobudris.sdcc.pagerank.io.CompressedAdjacency;
+import edu.brunobudris.sdcc.pagerank.model.PageRank;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The arithmetic of a PageRank iteration, shared by the mappers, the reducers and the in-memory replay of the
+ * iterations following a checkpoint. Ranks are rounded as the "page_rank" table stores them, so that a replayed
+ * iteration has the same digits as the one computed through the database.
+ */
+public class LocalIteration {
+
+    /**
+     * Scale of the rank and vote database columns
+     */
+    public static final int RANK_SCALE = 30;
+
+    private LocalIteration() {
+    }
+
+    /**
+     * @param dampingFactor damping factor of the job
+     * @param vertexCount number of vertices of the graph
+     * @return (1 - damping factor) / graph cardinality
+     */
+    public static BigDecimal sinkProbability(BigDecimal dampingFactor, int vertexCount) {
+        return BigDecimal.ONE
+                .subtract(dampingFactor)
+                .divide(new BigDecimal(vertexCount), RoundingMode.DOWN);
+    }
+
+    /**
+     * @param rank rank of the source vertex
+     * @param outDegree number of outgoing edges of the source vertex (> 0)
+     * @return the map vote of every outgoing edge
+     */
+    public static BigDecimal vote(BigDecimal rank, int outDegree) {
+        return rank.divide(new BigDecimal(outDegree), RoundingMode.DOWN);
+    }
+
+    /**
+     * @param votes sum of the map votes received by a vertex
+     * @param dampingFactor damping factor of the job
+     * @param sinkProbability (1 - damping factor) / graph cardinality
+     * @return the rank of the vertex, not rounded yet
+     */
+    public static BigDecimal rank(BigDecimal votes, BigDecimal dampingFactor, BigDecimal sinkProbability) {
+        return votes.multiply(dampingFactor).add(sinkProbability);
+    }
+
+    /**
+     * @param rank a computed rank
+     * @return the rank as it is stored in the database (PostgreSQL rounds half away from zero)
+     */
+    public static BigDecimal stored(BigDecimal rank) {
+        return rank.setScale(RANK_SCALE, RoundingMode.HALF_UP);
+    }
+
+    /**
+     * Computes the iterations following a rank vector on this node, from the graph held in memory
+     * @param ranks stored rank of every vertex
+     * @param graph the graph of the job
+     * @param dampingFactor damping factor of the job
+     * @param iterations number of iterations to be computed
+     * @return stored rank of every vertex after the last computed iteration
+     */
+    public static List<PageRank> replay(List<PageRank> ranks, CompressedAdjacency graph, BigDecimal dampingFactor,
+                                        int iterations) {
+        final var vertexCount = graph.vertexCount();
+        final var sinkProbability = sinkProbability(dampingFactor, vertexCount);
+        var current = new BigDecimal[vertexCount];
+
+        for (final var pageRank : ranks) {
+            current[graph.indexOf(pageRank.getVertexId())] = pageRank.getValue();
+        }
+
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            final var sums = new BigDecimal[vertexCount];
+            Arrays.fill(sums, BigDecimal.ZERO);
+
+            for (int source = 0; source < vertexCount; source++) {
+                final var successors = graph.successorsAt(source);
+                if (successors.size() == 0) {
+                    // sink vertex
+                    continue;
+                }
+
+                final var vote = vote(current[source], successors.size());
+                while (successors.hasNext()) {
+                    final var target = successors.nextIndex();
+                    sums[target] = sums[target].add(vote);
+                }
+            }
+
+            for (int vertex = 0; vertex < vertexCount; vertex++) {
+                sums[vertex] = stored(rank(sums[vertex], dampingFactor, sinkProbability));
+            }
+            current = sums;
+        }
+
+        final var replayed = new ArrayList<PageRank>(vertexCount);
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            replayed.add(PageRank.builder()
+                    .vertexId(graph.vertexAt(vertex))
+                    .value(current[vertex])
+                    .build());
+        }
+        return replayed;
+    }
+}
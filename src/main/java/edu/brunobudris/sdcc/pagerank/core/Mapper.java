@@ -1,23 +1,30 @@
 package edu.brunobudris.sdcc.pagerank.core;
 
+import edu.brunobudris.sdcc.pagerank.io.CheckpointStore;
+import edu.brunobudris.sdcc.pagerank.io.CompressedAdjacency;
+import edu.brunobudris.sdcc.pagerank.model.Job;
+import edu.brunobudris.sdcc.pagerank.model.MapVote;
 import edu.brunobudris.sdcc.pagerank.model.PageRank;
+import edu.brunobudris.sdcc.pagerank.monitoring.CoordinationWaitEvent;
+import edu.brunobudris.sdcc.pagerank.monitoring.MapBatchEvent;
 import edu.brunobudris.sdcc.pagerank.repository.IterationRepository;
 import edu.brunobudris.sdcc.pagerank.repository.MapVoteRepository;
 import edu.brunobudris.sdcc.pagerank.repository.PageRankRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.jgrapht.Graph;
-import org.jgrapht.graph.DefaultEdge;
-import org.springframework.dao.DuplicateKeyException;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 @RequiredArgsConstructor
@@ -27,24 +34,30 @@ public class Mapper {
     private final PageRankRepository pageRankRepository;
     private final IterationRepository iterationRepository;
     private final MapVoteRepository mapVoteRepository;
+    private final CheckpointStore checkpointStore;
+
+    @Value("${graph.convergence-threshold}")
+    private Double convergenceThreshold;
+
+    @Value("${graph.checkpoint.prune}")
+    private boolean isPruning;
+
+    @Value("${graph.batch-size}")
+    private Integer batchSize;
+
+    @Value("${graph.pipeline.capacity}")
+    private Integer pipelineCapacity;
 
     @Async
-    public CompletableFuture<Integer> execute(Graph<Long, DefaultEdge> graph) {
+    public CompletableFuture<Integer> execute(Job job, CompressedAdjacency graph) {
         log.info("A mapper is ready");
         try {
-            while (!iterationRepository.isAllMapped()) {
-                // the iteration that is ready to be mapped
-                final var optional = iterationRepository.getReady();
-
-                if (optional.isEmpty()) {
+            while (!iterationRepository.isAllMapped(job.getJobId())) {
+                if (!step(job, graph)) {
                     // no mapped iteration, waiting for reducers to finish their work
                     log.info("A mapper is waiting for an iteration to be ready");
-                    Thread.sleep(1000);
-                    continue;
+                    CoordinationWaitEvent.sleep("mapper", "ready", 1000);
                 }
-
-                // mapping outbound values
-                map(graph, optional.get());
             }
             // all iterations mapped - PageRank algorithm map phase terminated
             log.info("A mapper finished normally");
@@ -55,66 +68,229 @@ public class Mapper {
         }
     }
 
-    private void map(Graph<Long, DefaultEdge> graph, Integer iteration) {
-        log.info("Start of mapping iteration # {}", iteration);
+    /**
+     * Maps the iteration of a job that is ready to be mapped, if there is any
+     * @param job the job to be processed
+     * @param graph the graph of the job
+     * @return true if an iteration was mapped, false if no iteration was ready
+     */
+    public boolean step(Job job, CompressedAdjacency graph) throws InterruptedException {
+        // the iteration that is ready to be mapped
+        final var optional = iterationRepository.getReady(job.getJobId());
+
+        if (optional.isEmpty()) {
+            return false;
+        }
+
+        // mapping outbound values
+        map(job, graph, optional.get());
+        return true;
+    }
+
+    /**
+     * Maps an iteration with three concurrent stages: the reader thread selects the vertices that are not mapped yet,
+     * this thread computes their map votes and the writer thread inserts them in batches
+     */
+    private void map(Job job, CompressedAdjacency graph, Integer iteration) throws InterruptedException {
+        final var jobId = job.getJobId();
+        log.info("Start of mapping iteration # {} of job # {}", iteration, jobId);
         // Web page ranking in previous iteration
-        final var ranks = pageRankRepository.getPagesRank(iteration - 1);
+        final var ranks = isAdaptive()
+                ? getActiveRanks(jobId, iteration, graph.vertexCount())
+                : getRanks(job, graph, iteration);
 
         // Page randomization allows us to evenly distribute the workload between mappers
         Collections.shuffle(ranks);
 
+        // set by the reader when another mapper finished this iteration mapping phase before us
+        final var isMappedElsewhere = new AtomicBoolean();
+        // vertices mapped during one second
+        var batch = beginBatch(iteration);
+        var nextEventTime = LocalDateTime.now().plusSeconds(1);
+
+        // the votes of a vertex are written in the same batch, a vertex is either fully mapped or not mapped at all
+        try (final var writer = new BatchWriter<List<MapVote>>("mapper-writer", pipelineCapacity, batchSize,
+                List::size, votes -> insert(jobId, iteration, flatten(votes)));
+             final var reader = new Prefetcher<PageRank>("mapper-reader", pipelineCapacity,
+                     sink -> selectNotMapped(jobId, iteration, ranks, isMappedElsewhere, sink))) {
+            PageRank pageRank;
+
+            while ((pageRank = reader.take()) != null) {
+                if (LocalDateTime.now().isAfter(nextEventTime)) {
+                    batch.commit();
+                    batch = beginBatch(iteration);
+                    nextEventTime = LocalDateTime.now().plusSeconds(1);
+                }
+
+                final var votes = mapVertex(graph, pageRank);
+                if (!votes.isEmpty()) {
+                    writer.write(votes);
+                }
+                batch.setVertices(batch.getVertices() + 1);
+                batch.setVotes(batch.getVotes() + votes.size());
+            }
+        }
+        batch.commit();
+
+        if (isMappedElsewhere.get()) {
+            log.info("iteration # {} was mapped by another worker", iteration);
+            return;
+        }
+
+        final var updated = iterationRepository.markIterationAsMapped(jobId, iteration);
+        if (updated > 0) {
+            log.info("Iteration # {} was marked as mapped", iteration);
+        }
+        log.info("End of mapping iteration # {}", iteration);
+    }
+
+    /**
+     * Reader stage: queues the vertices of the shuffled ranking that are not mapped yet. No more than once per second
+     * it checks if this iteration has been mapped and refreshes the vertices mapped by the other mappers.
+     */
+    private void selectNotMapped(Long jobId, Integer iteration, List<PageRank> ranks, AtomicBoolean isMappedElsewhere,
+                                 Prefetcher.Sink<PageRank> sink) throws InterruptedException {
         // vertices that are already mapped
-        List<Long> alreadyMapped = mapVoteRepository.getSourcesId(iteration);
-        // No more than once per second we check if this iteration has been mapped
+        Set<Long> alreadyMapped = new HashSet<>(mapVoteRepository.getSourcesId(jobId, iteration));
         var nextCheckTime = LocalDateTime.now().plusSeconds(1);
 
         for (final var pageRank : ranks) {
             if (LocalDateTime.now().isAfter(nextCheckTime)) {
-                if (iterationRepository.isMapped(iteration)) {
-                    // another mapper finished this iteration mapping phase before us
-                    log.info("iteration # {} was mapped by another worker", iteration);
+                if (iterationRepository.isMapped(jobId, iteration)) {
+                    isMappedElsewhere.set(true);
                     return;
-                } else {
-                    alreadyMapped = mapVoteRepository.getSourcesId(iteration);
-                    // next check time
-                    nextCheckTime = LocalDateTime.now().plusSeconds(1);
                 }
+                alreadyMapped = new HashSet<>(mapVoteRepository.getSourcesId(jobId, iteration));
+                // next check time
+                nextCheckTime = LocalDateTime.now().plusSeconds(1);
             }
 
-            if (alreadyMapped.contains(pageRank.getVertexId())) {
-                continue;
+            if (!alreadyMapped.contains(pageRank.getVertexId())) {
+                sink.accept(pageRank);
             }
+        }
+    }
 
-            mapVertex(graph, pageRank, iteration);
+    /**
+     * Ranking of the previous iteration, restored from the most recent local checkpoint when there is one (the
+     * iterations following it are computed again in memory), read from the database otherwise
+     * @param job the job to be processed
+     * @param graph the graph of the job
+     * @param iteration iteration to be mapped
+     * @return rank of every vertex
+     */
+    private List<PageRank> getRanks(Job job, CompressedAdjacency graph, Integer iteration) {
+        final var jobId = job.getJobId();
+
+        if (checkpointStore.isEnabled()) {
+            // checkpoints of another run, job or graph are never restored
+            final var identity = checkpointStore.identify(job, iterationRepository.getRunToken(jobId).orElse(null),
+                    graph);
+            final var checkpoint = checkpointStore.readLatest(jobId, iteration - 1, identity);
+
+            if (checkpoint.isPresent()) {
+                final var replayed = iteration - 1 - checkpoint.get().iteration();
+                if (replayed == 0) {
+                    return checkpoint.get().ranks();
+                }
+
+                log.info("Replaying {} iterations from the checkpoint of iteration # {}", replayed,
+                        checkpoint.get().iteration());
+                return LocalIteration.replay(checkpoint.get().ranks(), graph, new BigDecimal(job.getDampingFactor()),
+                        replayed);
+            }
         }
 
-        final var updated = iterationRepository.markIterationAsMapped(iteration);
-        if (updated > 0) {
-            log.info("Iteration # {} was marked as mapped", iteration);
+        return pageRankRepository.getPagesRank(jobId, iteration - 1);
+    }
+
+    /**
+     * In adaptive mode, once the previous iteration is reduced (the latest ranks and votes are kept in their own
+     * tables), the older intermediate iterations are no longer needed by any worker. The initial ranks are kept, they
+     * mark the database as populated.
+     * @param jobId job ID
+     * @param iteration iteration to be mapped
+     */
+    private void prune(Long jobId, Integer iteration) {
+        if (!isPruning) {
+            return;
         }
-        log.info("End of mapping iteration # {}", iteration);
+
+        final var ranks = pageRankRepository.deleteBefore(jobId, iteration - 1);
+        final var votes = mapVoteRepository.deleteBefore(jobId, iteration);
+        log.info("Pruned {} ranks and {} map votes before iteration # {}", ranks, votes, iteration - 1);
+    }
+
+    /**
+     * Adaptive mode: only the vertices whose rank was rewritten in the previous iteration (the active frontier) emit
+     * new votes, the votes of frozen vertices are reused by reducers from the "latest_vote" table. Only the frontier
+     * is read, so checkpoints are not used.
+     * @param jobId job ID
+     * @param iteration iteration to be mapped
+     * @param vertexCount number of vertices of the graph
+     * @return ranks of the active vertices
+     */
+    private List<PageRank> getActiveRanks(Long jobId, Integer iteration, int vertexCount) {
+        final var active = pageRankRepository.getActivePagesRank(jobId, iteration - 1);
+        prune(jobId, iteration);
+
+        log.info("Iteration # {} active vertices: {}, frozen vertices: {}",
+                iteration, active.size(), vertexCount - active.size());
+        return active;
     }
 
-    private void mapVertex(Graph<Long, DefaultEdge> graph, PageRank pageRank, Integer iteration) {
-        final var outgoingEdges = graph.outgoingEdgesOf(pageRank.getVertexId());
-        final var size = outgoingEdges.size();
+    /**
+     * Writer stage: inserts the map votes, in adaptive mode they also replace the latest votes of their edges
+     */
+    private void insert(Long jobId, Integer iteration, List<MapVote> votes) {
+        if (isAdaptive()) {
+            mapVoteRepository.insertTrackingLatest(jobId, iteration, votes);
+        } else {
+            mapVoteRepository.insert(jobId, iteration, votes);
+        }
+    }
+
+    private MapBatchEvent beginBatch(Integer iteration) {
+        final var batch = new MapBatchEvent();
+        batch.setIteration(iteration);
+        batch.begin();
+        return batch;
+    }
+
+    private boolean isAdaptive() {
+        return convergenceThreshold > 0;
+    }
+
+    /**
+     * Computes the map votes of a vertex, decoding its compressed successor list
+     * @return one map vote per outgoing edge
+     */
+    private List<MapVote> mapVertex(CompressedAdjacency graph, PageRank pageRank) {
+        final var successors = graph.successors(pageRank.getVertexId());
+        final var size = successors.size();
         if (size == 0) {
             // vertex has no outgoing edges - it is a sink
-            return;
+            return List.of();
         }
 
         // outbound value - map vote
-        final var vote = pageRank.getValue().divide(new BigDecimal(size), RoundingMode.DOWN);
+        final var vote = LocalIteration.vote(pageRank.getValue(), size);
 
         // vertex is connected to these vertices
-        final var neighbours = outgoingEdges.stream()
-                .map(graph::getEdgeTarget)
-                .toList();
-
-        try {
-            mapVoteRepository.insert(pageRank.getVertexId(), neighbours, iteration, vote);
-        } catch (DuplicateKeyException exception) {
-            // this vertex was already mapped by another mapper
+        final var votes = new ArrayList<MapVote>(size);
+        while (successors.hasNext()) {
+            votes.add(MapVote.builder()
+                    .sourceId(pageRank.getVertexId())
+                    .targetId(successors.nextLong())
+                    .value(vote)
+                    .build());
         }
+        return votes;
+    }
+
+    private List<MapVote> flatten(List<List<MapVote>> votes) {
+        return votes.stream()
+                .flatMap(List::stream)
+                .toList();
     }
 }
@@ -0,0 +1,401 @@
+package edu.brunobudris.sdcc.pagerank.core;
+
+import edu.brunobudris.sdcc.pagerank.io.CompressedAdjacency;
+import edu.brunobudris.sdcc.pagerank.kernel.RankKernels;
+import edu.brunobudris.sdcc.pagerank.model.Job;
+import edu.brunobudris.sdcc.pagerank.model.PageRank;
+import edu.brunobudris.sdcc.pagerank.monitoring.CoordinationWaitEvent;
+import edu.brunobudris.sdcc.pagerank.repository.IterationRepository;
+import edu.brunobudris.sdcc.pagerank.repository.PageRankRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Approximate engine: Monte Carlo random walks instead of power iterations (complete path estimator). Every round
+ * starts one walk from every vertex; a walk counts a visit at every vertex it reaches, continues to a random
+ * successor with probability equal to the damping factor and stops otherwise or at a sink vertex. The rank of a vertex
+ * is estimated as visits * (1 - d) / (N * rounds), which converges to the ranks computed by the other engines (sink
+ * vertices do not redistribute their rank). Walks are sharded across threads, each one counting visits in its own
+ * array, and only the final ranks are stored, as the ranks of the last iteration.
+ * <p>
+ * Walks pick successors at random, which sequentially decoded gap lists cannot serve: while estimating, the graph is
+ * also held as plain CSR arrays (4 bytes per edge and per vertex, on top of the compressed lists).
+ * <p>
+ * A single worker estimates a job: the one that claimed its first iteration (owner column). The claim is a single
+ * update, renewed after every round of walks and taken over by another worker once it has expired (e.g. after a
+ * crash), so no connection is held while the walks run. The ranks and the iteration flags are then committed by the
+ * owner in a single transaction, so a stored rank vector is always a single complete estimate, and a failed estimate
+ * leaves nothing behind.
+ * <p>
+ * Visit counts are approximately Poisson distributed, so the relative standard error of an estimate is about
+ * 1 / sqrt(visits). In top-K mode the walks stop as soon as the K highest estimates are separated from the next one
+ * by their error bounds (2 standard errors), after a single pass of at most "walks" rounds.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class MonteCarloEngine {
+
+    // rounds before the top-K separation is checked, the error bounds are meaningless with fewer visits
+    private static final int MIN_ROUNDS = 2;
+    private static final double BOUND_SIGMAS = 2.0;
+    // a claim that has not been renewed for this long may be taken over, far longer than a round of walks
+    private static final int CLAIM_LEASE_SECONDS = 300;
+
+    private final IterationRepository iterationRepository;
+    private final PageRankRepository pageRankRepository;
+    private final RankKernels rankKernels;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${graph.monte-carlo.walks}")
+    private Integer walks;
+
+    @Value("${graph.monte-carlo.threads}")
+    private Integer threads;
+
+    @Value("${graph.monte-carlo.top-k}")
+    private Integer topK;
+
+    @Value("${graph.monte-carlo.seed}")
+    private Long seed;
+
+    @Value("${graph.batch-size}")
+    private Integer batchSize;
+
+    @Async
+    public CompletableFuture<Integer> execute(Job job, CompressedAdjacency graph) {
+        try {
+            log.info("A Monte Carlo worker is ready");
+            while (!run(job, graph)) {
+                log.info("A Monte Carlo worker is waiting for the estimate of another worker");
+                CoordinationWaitEvent.sleep("monte-carlo", "estimated", 1000);
+            }
+            log.info("A Monte Carlo worker finished");
+            return CompletableFuture.completedFuture(1);
+        } catch (Exception exception) {
+            log.error("A Monte Carlo worker finished with error", exception);
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    /**
+     * Claims a job, estimates its ranks, then stores them as the ranks of its last iteration and marks every iteration
+     * as reduced, in a single transaction
+     * @param job the job to be processed
+     * @param graph the graph of the job
+     * @return true if the job is estimated, false if another worker is estimating it
+     */
+    public boolean run(Job job, CompressedAdjacency graph) throws InterruptedException, ExecutionException {
+        final var jobId = job.getJobId();
+        final var owner = UUID.randomUUID().toString();
+
+        if (iterationRepository.claimFirstIteration(jobId, owner, CLAIM_LEASE_SECONDS) < 1) {
+            if (iterationRepository.isReduced(jobId, 1)) {
+                log.info("Job # {} was already estimated by another worker", jobId);
+                return true;
+            }
+            return false;
+        }
+
+        final var adjacency = new Adjacency(graph);
+        log.info("Monte Carlo adjacency of job # {}: {} bytes", jobId, adjacency.sizeInBytes());
+        final var ranks = estimate(adjacency, job.getDampingFactor(),
+                () -> iterationRepository.renewClaim(jobId, owner) > 0);
+
+        if (ranks == null) {
+            log.warn("The claim of job # {} expired, the estimate is left to another worker", jobId);
+            return false;
+        }
+
+        final var transaction = transactionManager.getTransaction(TransactionDefinition.withDefaults());
+        final boolean isStored;
+
+        try {
+            isStored = store(job, graph, owner, ranks);
+        } catch (Throwable throwable) {
+            transactionManager.rollback(transaction);
+            throw throwable;
+        }
+
+        transactionManager.commit(transaction);
+        return isStored;
+    }
+
+    /**
+     * Stores the estimated ranks, inside the transaction of the caller
+     * @return true if the ranks were stored, false if the claim was taken over by another worker
+     */
+    private boolean store(Job job, CompressedAdjacency graph, String owner, double[] ranks) {
+        final var jobId = job.getJobId();
+
+        // locked until the commit: a worker that took over an expired claim cannot store its estimate concurrently
+        if (!iterationRepository.lockClaim(jobId, owner)) {
+            log.warn("The claim of job # {} was taken over by another worker, the estimate is dropped", jobId);
+            return false;
+        }
+
+        final var iteration = job.getIterationLimit();
+
+        final var batch = new ArrayList<PageRank>(batchSize);
+        for (int vertex = 0; vertex < ranks.length; vertex++) {
+            batch.add(PageRank.builder()
+                    .vertexId(graph.vertexAt(vertex))
+                    // scale is equal to the db column datatype scale
+                    .value(new BigDecimal(ranks[vertex]).setScale(30, RoundingMode.DOWN))
+                    .build());
+
+            if (batch.size() == batchSize) {
+                pageRankRepository.insert(jobId, iteration, batch);
+                batch.clear();
+            }
+        }
+        pageRankRepository.insert(jobId, iteration, batch);
+
+        // the intermediate iterations have no ranks, there are no map votes
+        for (int i = 1; i <= iteration; i++) {
+            iterationRepository.markIterationAsReady(jobId, i);
+            iterationRepository.markIterationAsMapped(jobId, i);
+            iterationRepository.markIterationAsReduced(jobId, i);
+        }
+        log.info("Iteration # {} of job # {} estimated", iteration, jobId);
+        return true;
+    }
+
+    /**
+     * @param isClaimed renews the claim of the job after every round, false if it was taken over
+     * @return the estimated rank of every vertex, null if the claim was taken over
+     */
+    private double[] estimate(Adjacency adjacency, double dampingFactor, BooleanSupplier isClaimed)
+            throws InterruptedException, ExecutionException {
+        final var vertices = adjacency.vertexCount();
+        final var shards = Math.max(1, Math.min(threads, vertices));
+        // thread-local visit counters, merged when the top-K separation is checked and at the end
+        final var counters = new long[shards][vertices];
+        final var random = new SplittableRandom(seed);
+        final var executor = Executors.newFixedThreadPool(shards);
+        final var start = System.nanoTime();
+
+        var rounds = 0;
+        long[] visits = null;
+        try {
+            while (rounds < walks) {
+                runRound(executor, adjacency, dampingFactor, counters, random);
+                rounds++;
+
+                if (!isClaimed.getAsBoolean()) {
+                    return null;
+                }
+
+                if (topK > 0 && rounds >= MIN_ROUNDS && rounds < walks) {
+                    visits = merge(counters);
+                    if (isTopSeparated(visits, topK)) {
+                        log.info("Top {} separated after {} of {} rounds", topK, rounds, walks);
+                        break;
+                    }
+                }
+                visits = null;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (visits == null) {
+            visits = merge(counters);
+        }
+
+        final var ranks = new double[vertices];
+        long steps = 0;
+        for (int vertex = 0; vertex < vertices; vertex++) {
+            ranks[vertex] = visits[vertex];
+            steps += visits[vertex];
+        }
+        rankKernels.scale(ranks, (1 - dampingFactor) / ((double) vertices * rounds));
+
+        log.info("Monte Carlo: {} rounds, {} walks, {} steps in {} ms, rank mass {}", rounds,
+                (long) rounds * vertices, steps, (System.nanoTime() - start) / 1_000_000, rankKernels.sum(ranks));
+        logErrorBounds(visits, topK > 0 ? Math.min(topK, vertices) : vertices);
+        return ranks;
+    }
+
+    /**
+     * One walk from every vertex, the start vertices are sharded across the threads
+     */
+    private void runRound(ExecutorService executor, Adjacency adjacency, double dampingFactor, long[][] counters,
+                          SplittableRandom random) throws InterruptedException, ExecutionException {
+        final var vertices = adjacency.vertexCount();
+        final var shards = counters.length;
+        final var tasks = new ArrayList<Future<?>>(shards);
+
+        for (int shard = 0; shard < shards; shard++) {
+            final var from = (int) ((long) vertices * shard / shards);
+            final var to = (int) ((long) vertices * (shard + 1) / shards);
+            final var visits = counters[shard];
+            // split in submission order, the walks are reproducible for a given seed and thread count
+            final var shardRandom = random.split();
+            tasks.add(executor.submit(() -> walk(adjacency, dampingFactor, from, to, shardRandom, visits)));
+        }
+
+        for (final var task : tasks) {
+            task.get();
+        }
+    }
+
+    private static void walk(Adjacency adjacency, double dampingFactor, int from, int to, SplittableRandom random,
+                             long[] visits) {
+        final var offsets = adjacency.offsets;
+        final var targets = adjacency.targets;
+
+        for (int start = from; start < to; start++) {
+            var vertex = start;
+
+            while (true) {
+                visits[vertex]++;
+                final var degree = offsets[vertex + 1] - offsets[vertex];
+
+                if (degree == 0 || random.nextDouble() >= dampingFactor) {
+                    // sink vertex or teleport: the walk ends
+                    break;
+                }
+                vertex = targets[offsets[vertex] + random.nextInt(degree)];
+            }
+        }
+    }
+
+    private static long[] merge(long[][] counters) {
+        final var visits = counters[0].clone();
+
+        for (int shard = 1; shard < counters.length; shard++) {
+            final var shardVisits = counters[shard];
+            for (int vertex = 0; vertex < visits.length; vertex++) {
+                visits[vertex] += shardVisits[vertex];
+            }
+        }
+        return visits;
+    }
+
+    /**
+     * @return true if the lower bound of the K-th highest visit count is above the upper bound of the next one
+     */
+    private static boolean isTopSeparated(long[] visits, int k) {
+        if (k >= visits.length) {
+            // every vertex is in the top K
+            return true;
+        }
+
+        final var sorted = visits.clone();
+        final var kth = select(sorted, sorted.length - k);
+        // the elements before the K-th highest are lower than or equal to it
+        var next = 0L;
+        for (int i = 0; i < sorted.length - k; i++) {
+            next = Math.max(next, sorted[i]);
+        }
+
+        return kth - BOUND_SIGMAS * Math.sqrt(kth) > next + BOUND_SIGMAS * Math.sqrt(next);
+    }
+
+    private void logErrorBounds(long[] visits, int k) {
+        final var sorted = visits.clone();
+        select(sorted, sorted.length - k);
+
+        var sum = 0.0;
+        var max = 0.0;
+        for (int i = sorted.length - k; i < sorted.length; i++) {
+            final var relativeError = sorted[i] > 0 ? 1 / Math.sqrt(sorted[i]) : 1.0;
+            sum += relativeError;
+            max = Math.max(max, relativeError);
+        }
+        log.info("Relative standard error of the top {} estimates: mean {}, max {}", k, sum / k, max);
+    }
+
+    /**
+     * Quickselect: rearranges the values so that the element at the given index is the one of the sorted array, lower
+     * or equal elements before it and greater or equal elements after it
+     * @return the element at the given index
+     */
+    private static long select(long[] values, int index) {
+        var left = 0;
+        var right = values.length - 1;
+        final var random = new SplittableRandom(values.length);
+
+        while (left < right) {
+            final var pivot = values[left + random.nextInt(right - left + 1)];
+            var i = left;
+            var j = right;
+
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    final var swap = values[i];
+                    values[i++] = values[j];
+                    values[j--] = swap;
+                }
+            }
+
+            if (index <= j) {
+                right = j;
+            } else if (index >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return values[index];
+    }
+
+    /**
+     * Uncompressed copy of the graph (compressed sparse row), walks pick a successor by position
+     */
+    private static class Adjacency {
+
+        // vertex numbers only, the IDs are read from the compressed graph
+        private final int[] offsets;
+        private final int[] targets;
+
+        private Adjacency(CompressedAdjacency graph) {
+            final var vertices = graph.vertexCount();
+
+            offsets = new int[vertices + 1];
+            targets = new int[Math.toIntExact(graph.edgeCount())];
+            var edge = 0;
+            for (int vertex = 0; vertex < vertices; vertex++) {
+                offsets[vertex] = edge;
+
+                final var successors = graph.successorsAt(vertex);
+                while (successors.hasNext()) {
+                    targets[edge++] = successors.nextIndex();
+                }
+            }
+            offsets[vertices] = edge;
+        }
+
+        private int vertexCount() {
+            return offsets.length - 1;
+        }
+
+        private long sizeInBytes() {
+            return 4L * offsets.length + 4L * targets.length;
+        }
+    }
+}
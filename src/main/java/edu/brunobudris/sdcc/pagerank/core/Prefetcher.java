@@ -0,0 +1,102 @@
+package edu.brunobudris.sdcc.pagerank.core;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reader stage of the map and reduce pipelines: a background thread produces the items to be computed (including the
+ * database reads needed to select them) into a bounded queue, ahead of the compute stage.
+ * @param <T> item type
+ */
+public class Prefetcher<T> implements AutoCloseable {
+
+    private static final Object END = new Object();
+
+    private final String name;
+    private final BlockingQueue<Object> queue;
+    private final Thread thread;
+
+    private volatile Throwable failure;
+    private boolean isExhausted;
+
+    /**
+     * Starts the reader thread
+     * @param name thread name
+     * @param capacity maximum number of prefetched items
+     * @param producer produces the items, blocking while the queue is full
+     */
+    public Prefetcher(String name, int capacity, Producer<T> producer) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(() -> run(producer), name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Takes the next item, blocks until it is produced
+     * @return the next item, null when the producer is done
+     * @throws IllegalStateException if the producer failed
+     */
+    @SuppressWarnings("unchecked")
+    public T take() throws InterruptedException {
+        if (isExhausted) {
+            return null;
+        }
+
+        final var item = queue.take();
+        if (item == END) {
+            isExhausted = true;
+
+            if (failure != null) {
+                throw new IllegalStateException("Reader " + name + " failed", failure);
+            }
+            return null;
+        }
+        return (T) item;
+    }
+
+    /**
+     * Stops the reader thread if it is still producing
+     */
+    @Override
+    public void close() throws InterruptedException {
+        thread.interrupt();
+        thread.join();
+    }
+
+    private void run(Producer<T> producer) {
+        try {
+            producer.produce(queue::put);
+        } catch (InterruptedException exception) {
+            // closed by the compute stage
+            return;
+        } catch (Throwable throwable) {
+            // errors included, otherwise the compute stage would wait forever for the end of the items
+            failure = throwable;
+            // the prefetched items are dropped, the compute stage fails on its next take
+            queue.clear();
+        }
+
+        try {
+            queue.put(END);
+        } catch (InterruptedException exception) {
+            // closed by the compute stage
+        }
+    }
+
+    @FunctionalInterface
+    public interface Producer<T> {
+
+        /**
+         * @param sink queues an item, blocks while the queue is full
+         */
+        void produce(Sink<T> sink) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Sink<T> {
+
+        void accept(T item) throws InterruptedException;
+    }
+}
@@ -1,65 +1,75 @@
 package edu.brunobudris.sdcc.pagerank.core;
 
+import edu.brunobudris.sdcc.pagerank.io.CheckpointStore;
+import edu.brunobudris.sdcc.pagerank.io.CompressedAdjacency;
+import edu.brunobudris.sdcc.pagerank.model.Job;
 import edu.brunobudris.sdcc.pagerank.model.MapVote;
+import edu.brunobudris.sdcc.pagerank.model.PageRank;
+import edu.brunobudris.sdcc.pagerank.monitoring.CoordinationWaitEvent;
+import edu.brunobudris.sdcc.pagerank.monitoring.ReduceBatchEvent;
 import edu.brunobudris.sdcc.pagerank.repository.IterationRepository;
 import edu.brunobudris.sdcc.pagerank.repository.MapVoteRepository;
 import edu.brunobudris.sdcc.pagerank.repository.PageRankRepository;
 import lombok.extern.slf4j.Slf4j;
-import org.jgrapht.Graph;
-import org.jgrapht.graph.DefaultEdge;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.dao.DuplicateKeyException;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class Reducer {
 
-    private final BigDecimal dampingFactor;
+    private final BigDecimal convergenceThreshold;
+    private final int batchSize;
+    private final int pipelineCapacity;
+    private final boolean isPruning;
     private final MapVoteRepository mapVoteRepository;
     private final IterationRepository iterationRepository;
     private final PageRankRepository pageRankRepository;
+    private final CheckpointStore checkpointStore;
 
     @Autowired
-    public Reducer(@Value("${graph.damping-factor}") Double dampingFactor, MapVoteRepository mapVoteRepository,
-                   IterationRepository iterationRepository, PageRankRepository pageRankRepository)  {
-        this.dampingFactor = new BigDecimal(dampingFactor);
+    public Reducer(@Value("${graph.convergence-threshold}") Double convergenceThreshold,
+                   @Value("${graph.batch-size}") Integer batchSize,
+                   @Value("${graph.pipeline.capacity}") Integer pipelineCapacity,
+                   @Value("${graph.checkpoint.prune}") boolean isPruning,
+                   MapVoteRepository mapVoteRepository, IterationRepository iterationRepository,
+                   PageRankRepository pageRankRepository, CheckpointStore checkpointStore)  {
+        this.convergenceThreshold = new BigDecimal(convergenceThreshold);
+        this.batchSize = batchSize;
+        this.pipelineCapacity = pipelineCapacity;
+        this.isPruning = isPruning;
         this.mapVoteRepository = mapVoteRepository;
         this.iterationRepository = iterationRepository;
         this.pageRankRepository = pageRankRepository;
+        this.checkpointStore = checkpointStore;
     }
 
     @Async
-    public CompletableFuture<Integer> execute(Graph<Long, DefaultEdge> graph) {
+    public CompletableFuture<Integer> execute(Job job, CompressedAdjacency graph) {
         try {
             log.info("A reducer is ready");
 
-            final var sinkProbability = BigDecimal.ONE
-                    .subtract(this.dampingFactor)
-                    .divide(new BigDecimal(graph.vertexSet().size()), RoundingMode.DOWN);
-
-            while (!iterationRepository.isAllReduced()) {
-                final var optional = iterationRepository.getMapped();
-
-                if (optional.isEmpty()) {
+            while (!iterationRepository.isAllReduced(job.getJobId())) {
+                if (!step(job, graph)) {
                     // no available mapped iteration, waiting for mappers to finish their work
                     log.info("A reducer is waiting for an iteration to be mapped");
-                    Thread.sleep(1000);
-                    continue;
+                    CoordinationWaitEvent.sleep("reducer", "mapped", 1000);
                 }
-
-                // summing outbound values (map votes)
-                reduce(graph, optional.get(), sinkProbability);
             }
             // all iterations completed - PageRank algorithm terminated
             log.info("A reducer finished");
@@ -70,69 +80,244 @@ public class Reducer {
         }
     }
 
-    private void reduce(Graph<Long, DefaultEdge> graph, Integer iteration, BigDecimal sinkProbability) {
-        log.info("Start of reducing iteration # {}", iteration);
-        // web pages
-        final var vertices = new LinkedList<>(graph.vertexSet());
+    /**
+     * Reduces the iteration of a job that is mapped and ready to be reduced, if there is any
+     * @param job the job to be processed
+     * @param graph the graph of the job
+     * @return true if an iteration was reduced, false if no iteration was mapped
+     */
+    public boolean step(Job job, CompressedAdjacency graph) throws InterruptedException {
+        final var optional = iterationRepository.getMapped(job.getJobId());
+
+        if (optional.isEmpty()) {
+            return false;
+        }
+
+        final var dampingFactor = new BigDecimal(job.getDampingFactor());
+        final var sinkProbability = LocalIteration.sinkProbability(dampingFactor, graph.vertexCount());
+
+        // summing outbound values (map votes)
+        reduce(job, graph, optional.get(), dampingFactor, sinkProbability);
+        return true;
+    }
+
+    /**
+     * Reduces an iteration with three concurrent stages: the reader thread selects the vertices that are not reduced
+     * yet, this thread computes their ranks and the writer thread inserts them in batches
+     */
+    private void reduce(Job job, CompressedAdjacency graph, Integer iteration, BigDecimal dampingFactor,
+                        BigDecimal sinkProbability) throws InterruptedException {
+        final var jobId = job.getJobId();
+        log.info("Start of reducing iteration # {} of job # {}", iteration, jobId);
+        final var adaptive = isAdaptive();
+        // the adaptive mode keeps the latest ranks in the database, the checkpoints are not used
+        final var isCheckpointed = !adaptive && checkpointStore.isDue(iteration);
+        // ranks computed by this reducer, kept for the checkpoint
+        final var reduced = new ArrayList<PageRank>();
+
+        // map votes (outbound values) calculated during map phase, summed by target vertex
+        final var values = adaptive
+                ? mapVoteRepository.getLatestMapValues(jobId, iteration)
+                : mapVoteRepository.getMapValues(jobId, iteration);
+        // vote sums and counts by target vertex
+        final var sums = sumByTarget(values);
+
+        // web pages: in adaptive mode, after the first iteration, only the vertices that received a new vote
+        final var vertices = new ArrayList<>(adaptive && iteration > 1 ? sums.keySet() : graph.vertices());
 
         // Page randomization allows us to evenly distribute the workload between mappers
         Collections.shuffle(vertices);
 
-        // map votes (outbound values) calculated during map phase
-        final var values = mapVoteRepository.getMapValues(iteration);
+        // adaptive mode: the rank each vertex had before this iteration, used to detect stable vertices
+        final Map<Long, BigDecimal> previousRanks = adaptive
+                ? pageRankRepository.getLatestTargetsRank(jobId, iteration).stream()
+                        .collect(Collectors.toMap(PageRank::getVertexId, PageRank::getValue))
+                : Map.of();
+
+        // set by the reader when another reducer finished this iteration reducing phase before us
+        final var isReducedElsewhere = new AtomicBoolean();
+        // vertices reduced during one second
+        var batch = beginBatch(iteration);
+        var nextEventTime = LocalDateTime.now().plusSeconds(1);
+
+        try (final var writer = new BatchWriter<PageRank>("reducer-writer", pipelineCapacity, batchSize,
+                pageRank -> 1, ranks -> insert(jobId, iteration, ranks));
+             final var reader = new Prefetcher<Long>("reducer-reader", pipelineCapacity,
+                     sink -> selectNotReduced(jobId, iteration, vertices, isReducedElsewhere, sink))) {
+            Long vertex;
+
+            while ((vertex = reader.take()) != null) {
+                if (LocalDateTime.now().isAfter(nextEventTime)) {
+                    batch.commit();
+                    batch = beginBatch(iteration);
+                    nextEventTime = LocalDateTime.now().plusSeconds(1);
+                }
 
+                final var sum = sums.getOrDefault(vertex, VoteSum.EMPTY);
+                final var pageRank = reduceVertex(vertex, dampingFactor, sinkProbability, sum.value(),
+                        previousRanks.get(vertex));
+                writer.write(pageRank);
+                if (isCheckpointed) {
+                    reduced.add(pageRank);
+                }
+                batch.setVertices(batch.getVertices() + 1);
+                batch.setVotes(batch.getVotes() + sum.count());
+            }
+        }
+        batch.commit();
+
+        if (isReducedElsewhere.get()) {
+            log.info("iteration # {} was reduced by another worker", iteration);
+            return;
+        }
+
+        if (adaptive) {
+            log.info("Iteration # {} reduced vertices: {}", iteration, vertices.size());
+        }
+
+        var updated = iterationRepository.markIterationAsReduced(jobId, iteration);
+        if (updated > 0) {
+            log.info("Iteration # {} was marked as reduced", iteration);
+
+            if (isCheckpointed) {
+                checkpoint(job, graph, iteration, reduced);
+            }
+        }
+        updated = iterationRepository.markIterationAsReady(jobId, iteration + 1);
+        if (updated > 0) {
+            log.info("Iteration # {} was marked as ready", iteration + 1);
+        }
+        log.info("End of reducing iteration # {}", iteration);
+    }
+
+    /**
+     * Reader stage: queues the shuffled vertices that are not reduced yet. No more than once per second it checks if
+     * this iteration has been reduced and refreshes the vertices reduced by the other reducers.
+     */
+    private void selectNotReduced(Long jobId, Integer iteration, List<Long> vertices, AtomicBoolean isReducedElsewhere,
+                                  Prefetcher.Sink<Long> sink) throws InterruptedException {
         // vertices that are already reduced
-        var alreadyReduced = pageRankRepository.getPages(iteration);
-        // No more than once per second we check if this iteration has been reduced
+        Set<Long> alreadyReduced = new HashSet<>(pageRankRepository.getPages(jobId, iteration));
         var nextCheckTime = LocalDateTime.now().plusSeconds(1);
 
         for (final var vertex : vertices) {
             if (LocalDateTime.now().isAfter(nextCheckTime)) {
-                if (iterationRepository.isReduced(iteration)) {
-                    // another reducer finished this iteration reducing phase before us
-                    log.info("iteration # {} was reduced by another worker", iteration);
+                if (iterationRepository.isReduced(jobId, iteration)) {
+                    isReducedElsewhere.set(true);
                     return;
-                } else {
-                    alreadyReduced = pageRankRepository.getPages(iteration);
-                    // next check time
-                    nextCheckTime = LocalDateTime.now().plusSeconds(1);
                 }
+                alreadyReduced = new HashSet<>(pageRankRepository.getPages(jobId, iteration));
+                // next check time
+                nextCheckTime = LocalDateTime.now().plusSeconds(1);
             }
 
-            if (alreadyReduced.contains(vertex)) {
-                continue;
+            if (!alreadyReduced.contains(vertex)) {
+                sink.accept(vertex);
             }
+        }
+    }
 
-            reduceVertex(vertex, sinkProbability, iteration, values);
+    /**
+     * Computes the rank of a vertex
+     * @return the rank to be stored, flagged as frozen if the vertex is stable (adaptive mode)
+     */
+    private PageRank reduceVertex(Long vertex, BigDecimal dampingFactor, BigDecimal sinkProbability, BigDecimal votes,
+                                  BigDecimal previousRank) {
+        final var rank = LocalIteration.rank(votes, dampingFactor, sinkProbability);
+
+        if (previousRank != null && rank.subtract(previousRank).abs().compareTo(convergenceThreshold) < 0) {
+            // adaptive mode: the vertex is stable, it keeps its previous rank and is frozen (no vote, no latest rank
+            // rewrite), its row only marks it as reduced for the other reducers
+            return PageRank.builder()
+                    .vertexId(vertex)
+                    .value(previousRank)
+                    .frozen(true)
+                    .build();
         }
 
-        var updated = iterationRepository.markIterationAsReduced(iteration);
-        if (updated > 0) {
-            log.info("Iteration # {} was marked as reduced", iteration);
+        return PageRank.builder()
+                .vertexId(vertex)
+                .value(rank)
+                .build();
+    }
+
+    /**
+     * Checkpoints an iteration completed by this reducer. The ranks computed by the other reducers that took part in
+     * it, if any, are read from the database. Once the iteration is checkpointed, the older intermediate iterations
+     * are no longer needed by any worker and may be pruned (the initial ranks are kept, they mark the database as
+     * populated).
+     * @param job the job to be processed
+     * @param graph the graph of the job
+     * @param iteration the reduced iteration
+     * @param reduced ranks computed by this reducer
+     */
+    private void checkpoint(Job job, CompressedAdjacency graph, Integer iteration, List<PageRank> reduced) {
+        final var jobId = job.getJobId();
+        final var ranks = reduced.size() == graph.vertexCount()
+                ? reduced.stream()
+                        .map(pageRank -> PageRank.builder()
+                                .vertexId(pageRank.getVertexId())
+                                .value(LocalIteration.stored(pageRank.getValue()))
+                                .build())
+                        .toList()
+                : pageRankRepository.getPagesRank(jobId, iteration);
+
+        // checkpoints of another run, job or graph are never restored
+        final var identity = checkpointStore.identify(job, iterationRepository.getRunToken(jobId).orElse(null),
+                graph);
+        checkpointStore.write(jobId, iteration, identity, ranks);
+
+        if (isPruning) {
+            final var deletedRanks = pageRankRepository.deleteBefore(jobId, iteration);
+            final var deletedVotes = mapVoteRepository.deleteBefore(jobId, iteration + 1);
+            log.info("Pruned {} ranks before iteration # {} and {} map votes up to it", deletedRanks, iteration,
+                    deletedVotes);
         }
-        updated = iterationRepository.markIterationAsReady(iteration + 1);
-        if (updated > 0) {
-            log.info("Iteration # {} was marked as ready", iteration + 1);
+    }
+
+    /**
+     * Writer stage: inserts the ranks, in adaptive mode the rewritten ones also replace the latest ranks
+     */
+    private void insert(Long jobId, Integer iteration, List<PageRank> ranks) {
+        if (isAdaptive()) {
+            pageRankRepository.insertTrackingLatest(jobId, iteration, ranks);
+        } else {
+            pageRankRepository.insert(jobId, iteration, ranks);
         }
-        log.info("End of reducing iteration # {}", iteration);
     }
 
-    private void reduceVertex(Long vertex, BigDecimal sinkProbability, Integer iteration, List<MapVote> values) {
-        var rank = BigDecimal.ZERO;
+    private Map<Long, VoteSum> sumByTarget(List<MapVote> values) {
+        final var sums = new HashMap<Long, VoteSum>();
 
         for (final var mapValue : values) {
-            if (vertex.equals(mapValue.getTargetId())) {
-                rank = rank.add(mapValue.getValue());
-            }
+            sums.merge(mapValue.getTargetId(), new VoteSum(mapValue.getValue(), 1), VoteSum::add);
         }
 
-        rank = rank.multiply(dampingFactor);
-        rank = rank.add(sinkProbability);
+        return sums;
+    }
+
+    private ReduceBatchEvent beginBatch(Integer iteration) {
+        final var batch = new ReduceBatchEvent();
+        batch.setIteration(iteration);
+        batch.begin();
+        return batch;
+    }
 
-        try {
-            pageRankRepository.insert(vertex, iteration, rank);
-        } catch (DuplicateKeyException exception) {
-            // this value was already inserted by another reducer
+    private boolean isAdaptive() {
+        return convergenceThreshold.signum() > 0;
+    }
+
+    /**
+     * Sum of the map votes received by a vertex
+     * @param value sum of the votes
+     * @param count number of votes
+     */
+    private record VoteSum(BigDecimal value, int count) {
+
+        private static final VoteSum EMPTY = new VoteSum(BigDecimal.ZERO, 0);
+
+        private VoteSum add(VoteSum other) {
+            return new VoteSum(value.add(other.value), count + other.count);
         }
     }
 }
@@ -0,0 +1,99 @@
+package edu.brunobudris.sdcc.pagerank.core;
+
+import edu.brunobudris.sdcc.pagerank.io.CompressedAdjacency;
+import edu.brunobudris.sdcc.pagerank.model.Job;
+import edu.brunobudris.sdcc.pagerank.monitoring.CoordinationWaitEvent;
+import edu.brunobudris.sdcc.pagerank.repository.IterationRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Assigns the worker threads of this node to the phase that has outstanding work. With adaptive roles every worker
+ * reduces the mapped iteration if there is one and maps the ready iteration otherwise, the number of workers in each
+ * phase being optionally capped. With fixed roles a worker only takes the phases enabled by "graph.mapper" and
+ * "graph.reducer".
+ */
+@Service
+@Slf4j
+public class RoleScheduler {
+
+    private final IterationRepository iterationRepository;
+    private final Mapper mapper;
+    private final Reducer reducer;
+    private final Semaphore mapperPermits;
+    private final Semaphore reducerPermits;
+
+    @Autowired
+    public RoleScheduler(@Value("${graph.roles.adaptive}") boolean isAdaptive,
+                         @Value("${graph.roles.max-mappers}") Integer maxMappers,
+                         @Value("${graph.roles.max-reducers}") Integer maxReducers,
+                         @Value("${graph.mapper}") boolean isMapper,
+                         @Value("${graph.reducer}") boolean isReducer,
+                         IterationRepository iterationRepository, Mapper mapper, Reducer reducer) {
+        this.iterationRepository = iterationRepository;
+        this.mapper = mapper;
+        this.reducer = reducer;
+        this.mapperPermits = new Semaphore(isAdaptive ? getCap(maxMappers) : isMapper ? Integer.MAX_VALUE : 0);
+        this.reducerPermits = new Semaphore(isAdaptive ? getCap(maxReducers) : isReducer ? Integer.MAX_VALUE : 0);
+    }
+
+    @Async
+    public CompletableFuture<Integer> execute(Job job, CompressedAdjacency graph) {
+        log.info("An adaptive worker is ready");
+        try {
+            while (!iterationRepository.isAllReduced(job.getJobId())) {
+                if (!step(job, graph)) {
+                    // both phases are done or capped, waiting for another worker to complete the current iteration
+                    log.info("An adaptive worker is waiting for an iteration to be ready or mapped");
+                    CoordinationWaitEvent.sleep("adaptive", "ready", 1000);
+                }
+            }
+            // all iterations completed - PageRank algorithm terminated
+            log.info("An adaptive worker finished");
+            return CompletableFuture.completedFuture(1);
+        } catch (Exception exception) {
+            log.error("An adaptive worker finished with error", exception);
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    /**
+     * Processes one phase of one iteration of a job, reducing first: the next iteration becomes ready to be mapped
+     * only once the current one is reduced
+     * @param job the job to be processed
+     * @param graph the graph of the job
+     * @return true if an iteration was reduced or mapped, false if there was no work this worker may take
+     */
+    public boolean step(Job job, CompressedAdjacency graph) throws InterruptedException {
+        if (reducerPermits.tryAcquire()) {
+            try {
+                if (reducer.step(job, graph)) {
+                    return true;
+                }
+            } finally {
+                reducerPermits.release();
+            }
+        }
+
+        if (mapperPermits.tryAcquire()) {
+            try {
+                return mapper.step(job, graph);
+            } finally {
+                mapperPermits.release();
+            }
+        }
+
+        return false;
+    }
+
+    private static int getCap(Integer max) {
+        // 0 means no cap
+        return max == null || max < 1 ? Integer.MAX_VALUE : max;
+    }
+}
@@ -1,7 +1,10 @@
 package edu.brunobudris.sdcc.pagerank.core;
 
-import edu.brunobudris.sdcc.pagerank.io.DotGraphBuilder;
-import edu.brunobudris.sdcc.pagerank.io.HttpGraphProvider;
+import edu.brunobudris.sdcc.pagerank.io.CompressedAdjacency;
+import edu.brunobudris.sdcc.pagerank.io.RankExporter;
+import edu.brunobudris.sdcc.pagerank.model.Job;
+import edu.brunobudris.sdcc.pagerank.model.JobStatus;
+import edu.brunobudris.sdcc.pagerank.repository.JobRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -11,6 +14,7 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.concurrent.CompletableFuture;
 
 @Component
@@ -19,10 +23,40 @@ import java.util.concurrent.CompletableFuture;
 public class Runner {
 
     private final ApplicationContext applicationContext;
-    private final HttpGraphProvider graphProvider;
+    private final GraphLoader graphLoader;
     private final Initializer initializer;
     private final Mapper mapper;
     private final Reducer reducer;
+    private final SqlEngine sqlEngine;
+    private final MonteCarloEngine monteCarloEngine;
+    private final Scheduler scheduler;
+    private final RoleScheduler roleScheduler;
+    private final RankExporter rankExporter;
+    private final JobRepository jobRepository;
+
+    @Value("${graph.url}")
+    private String graphUrl;
+
+    @Value("${graph.iteration-limit}")
+    private Integer iterationLimit;
+
+    @Value("${graph.damping-factor}")
+    private Double dampingFactor;
+
+    @Value("${graph.engine}")
+    private Engine engine;
+
+    @Value("${graph.jobs.enabled}")
+    private boolean isMultiJob;
+
+    @Value("${graph.jobs.workers}")
+    private Integer workers;
+
+    @Value("${graph.roles.adaptive}")
+    private boolean isAdaptiveRoles;
+
+    @Value("${graph.roles.workers}")
+    private Integer roleWorkers;
 
     @Value("${graph.mapper}")
     private boolean isMapper;
@@ -41,21 +75,85 @@ public class Runner {
     }
 
     private void run() throws Exception {
-        final var data = graphProvider.provide();
-        final var graph = DotGraphBuilder.build(data);
-        initializer.init(graph);
+        if (isMultiJob) {
+            runJobs();
+            return;
+        }
+
+        // single job mode: the job configured by the application properties
+        final var job = Job.builder()
+                .jobId(Job.DEFAULT_ID)
+                .graphUrl(graphUrl)
+                .iterationLimit(iterationLimit)
+                .dampingFactor(dampingFactor)
+                .status(JobStatus.RUNNING)
+                .build();
+        final var loaded = graphLoader.load(job);
+        final var graph = loaded.graph();
+
+        if (loaded.ordering() != null) {
+            initializer.initLabels(job.getJobId(), loaded.ordering());
+        }
+
+        initializer.init(job, graph);
+
+        if (engine == Engine.SQL) {
+            // async task, every node runs the same worker
+            sqlEngine.execute(job, graph).get();
+        } else if (engine == Engine.MONTE_CARLO) {
+            // async task, a single worker estimates the ranks, the other ones wait for it
+            monteCarloEngine.execute(job, graph).get();
+        } else if (isAdaptiveRoles) {
+            runAdaptive(job, graph);
+        } else {
+            runMapReduce(job, graph);
+        }
+
+        if (engine != Engine.MAPREDUCE || isAdaptiveRoles || isReducer) {
+            // the final iteration is reduced
+            jobRepository.markCompleted(job.getJobId());
+
+            if (rankExporter.isEnabled()) {
+                // every reducer node writes its own local copy
+                rankExporter.export(job, loaded.ordering());
+            }
+        }
+    }
+
+    private void runJobs() throws Exception {
+        final var futures = new ArrayList<CompletableFuture<Integer>>();
+
+        for (int worker = 0; worker < workers; worker++) {
+            // async task, long-lived: it only stops on error
+            futures.add(scheduler.execute());
+        }
+
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get();
+    }
+
+    private void runAdaptive(Job job, CompressedAdjacency graph) throws Exception {
+        final var futures = new ArrayList<CompletableFuture<Integer>>();
+
+        for (int worker = 0; worker < roleWorkers; worker++) {
+            // async task, maps or reduces depending on the pending work
+            futures.add(roleScheduler.execute(job, graph));
+        }
+
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get();
+    }
 
+    private void runMapReduce(Job job, CompressedAdjacency graph) throws Exception {
         CompletableFuture<Integer> mapperFuture = null;
         CompletableFuture<Integer> reducerFuture = null;
 
         if (isMapper) {
             // async task
-            mapperFuture = mapper.execute(graph);
+            mapperFuture = mapper.execute(job, graph);
         }
 
         if (isReducer) {
             // async task
-            reducerFuture = reducer.execute(graph);
+            reducerFuture = reducer.execute(job, graph);
         }
 
         if (mapperFuture != null && reducerFuture == null) {
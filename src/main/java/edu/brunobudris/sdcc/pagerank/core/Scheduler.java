@@ -0,0 +1,225 @@
+package edu.brunobudris.sdcc.pagerank.core;
+
+import edu.brunobudris.sdcc.pagerank.io.CompressedAdjacency;
+import edu.brunobudris.sdcc.pagerank.io.RankExporter;
+import edu.brunobudris.sdcc.pagerank.model.Job;
+import edu.brunobudris.sdcc.pagerank.monitoring.CoordinationWaitEvent;
+import edu.brunobudris.sdcc.pagerank.repository.IterationRepository;
+import edu.brunobudris.sdcc.pagerank.repository.JobRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Multi-job mode: long-lived workers claim jobs from the "job" table in fair-share order (the job claimed the
+ * longest time ago first) and process a single phase of a single iteration of the claimed job before claiming again,
+ * so that every active job progresses at the same pace. New graphs are ranked by inserting a row in the "job" table.
+ * Loaded graphs are shared by the workers of the same node and evicted when their job is no longer active.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class Scheduler {
+
+    private final JobRepository jobRepository;
+    private final IterationRepository iterationRepository;
+    private final GraphLoader graphLoader;
+    private final Initializer initializer;
+    private final RoleScheduler roleScheduler;
+    private final SqlEngine sqlEngine;
+    private final MonteCarloEngine monteCarloEngine;
+    private final RankExporter rankExporter;
+
+    // graphs loaded or being loaded by this node, by job ID
+    private final Map<Long, CompletableFuture<GraphLoader.LoadedGraph>> graphs = new ConcurrentHashMap<>();
+    // consecutive retryable failures of this node, by job ID
+    private final Map<Long, Integer> failures = new ConcurrentHashMap<>();
+
+    @Value("${graph.engine}")
+    private Engine engine;
+
+    @Value("${graph.jobs.max-attempts}")
+    private Integer maxAttempts;
+
+    @Async
+    public CompletableFuture<Integer> execute() {
+        log.info("A scheduler worker is ready");
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final var job = jobRepository.claim();
+
+                if (job.isEmpty() || !process(job.get())) {
+                    // no active job, or no work available in the claimed one
+                    evictInactive();
+                    CoordinationWaitEvent.sleep("scheduler", "job", 1000);
+                }
+            }
+            log.info("A scheduler worker finished");
+            return CompletableFuture.completedFuture(1);
+        } catch (Exception exception) {
+            log.error("A scheduler worker finished with error", exception);
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    /**
+     * Processes a single phase of a single iteration of a job
+     * @param job the claimed job
+     * @return true if some work was done
+     */
+    private boolean process(Job job) throws InterruptedException {
+        final var jobId = job.getJobId();
+
+        try {
+            if (isCompleted(jobId)) {
+                complete(job);
+                return true;
+            }
+
+            final var loaded = getGraph(job);
+            if (loaded == null) {
+                // the graph is being loaded by another worker of this node (which reports a failure), the job is
+                // claimed again later
+                return false;
+            }
+
+            final var isDone = step(job, loaded.graph());
+            failures.remove(jobId);
+            return isDone;
+        } catch (InterruptedException exception) {
+            throw exception;
+        } catch (Exception exception) {
+            // the loaded graph is kept, it is evicted by getGraph only if the loading itself failed
+            if (isCompleted(jobId)) {
+                // another worker reduced the last iteration in the meantime (the initialization refuses to run)
+                return false;
+            }
+
+            final var attempts = failures.merge(jobId, 1, Integer::sum);
+            if (isRetryable(exception) && attempts < maxAttempts) {
+                // e.g. a concurrent initialization or a download error, the job is claimed again later
+                log.warn("Job # {} failed (attempt {} of {}), retrying", jobId, attempts, maxAttempts, exception);
+                return false;
+            }
+
+            // a failing job must not stop the worker, the other jobs are still processed
+            log.error("Job # {} failed", jobId, exception);
+            jobRepository.markFailed(jobId);
+            failures.remove(jobId);
+            return true;
+        }
+    }
+
+    private boolean step(Job job, CompressedAdjacency graph) throws InterruptedException, ExecutionException {
+        if (engine == Engine.SQL) {
+            return sqlEngine.step(job, graph.vertexCount());
+        }
+
+        if (engine == Engine.MONTE_CARLO) {
+            // the whole job is a single step, false while another worker is estimating it
+            return monteCarloEngine.run(job, graph);
+        }
+
+        return roleScheduler.step(job, graph);
+    }
+
+    /**
+     * @return true if the failure (or one of its causes) may not happen again: concurrency and connection errors,
+     * I/O errors while fetching the graph
+     */
+    private static boolean isRetryable(Throwable exception) {
+        for (var cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientDataAccessException || cause instanceof RecoverableDataAccessException
+                    || cause instanceof DuplicateKeyException || cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isCompleted(Long jobId) {
+        return iterationRepository.countIteration(jobId) > 0 && iterationRepository.isAllReduced(jobId);
+    }
+
+    /**
+     * The graph of a job, loaded and initialized by the first worker of this node that needs it. The loading runs
+     * outside the map, the other workers of the job do not wait for it and process other jobs in the meantime.
+     * @return the loaded graph, null if another worker is loading it or failed to load it
+     */
+    private GraphLoader.LoadedGraph getGraph(Job job) {
+        final var future = new CompletableFuture<GraphLoader.LoadedGraph>();
+        final var existing = graphs.putIfAbsent(job.getJobId(), future);
+
+        if (existing != null) {
+            return existing.isDone() && !existing.isCompletedExceptionally() ? existing.join() : null;
+        }
+
+        try {
+            final var loaded = prepare(job);
+            future.complete(loaded);
+            return loaded;
+        } catch (Throwable throwable) {
+            // the next claim loads the graph again
+            graphs.remove(job.getJobId(), future);
+            future.completeExceptionally(throwable);
+            throw throwable;
+        }
+    }
+
+    private GraphLoader.LoadedGraph prepare(Job job) {
+        try {
+            final var loaded = graphLoader.load(job);
+
+            if (loaded.ordering() != null) {
+                initializer.initLabels(job.getJobId(), loaded.ordering());
+            }
+            initializer.init(job, loaded.graph());
+            return loaded;
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private void complete(Job job) throws IOException {
+        if (jobRepository.markCompleted(job.getJobId()) < 1) {
+            // completed by another worker
+            return;
+        }
+        log.info("Job # {} completed", job.getJobId());
+
+        if (rankExporter.isEnabled()) {
+            // only the worker that completes the job exports it, the graph is reloaded for the vertex labels
+            final var future = graphs.get(job.getJobId());
+            final var loaded = future != null && future.isDone() && !future.isCompletedExceptionally()
+                    ? future.join()
+                    : null;
+            final var ordering = loaded != null ? loaded.ordering()
+                    : graphLoader.isRelabelling() ? graphLoader.load(job).ordering() : null;
+            rankExporter.export(job, ordering);
+        }
+        graphs.remove(job.getJobId());
+    }
+
+    private void evictInactive() {
+        if (graphs.isEmpty() && failures.isEmpty()) {
+            return;
+        }
+
+        final var active = new HashSet<>(jobRepository.getActiveJobIds());
+        graphs.keySet().removeIf(jobId -> !active.contains(jobId));
+        failures.keySet().removeIf(jobId -> !active.contains(jobId));
+    }
+}
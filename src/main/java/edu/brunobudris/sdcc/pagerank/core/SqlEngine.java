@@ -0,0 +1,100 @@
+package edu.brunobudris.sdcc.pagerank.core;
+
+import edu.brunobudris.sdcc.pagerank.io.CompressedAdjacency;
+import edu.brunobudris.sdcc.pagerank.model.Job;
+import edu.brunobudris.sdcc.pagerank.monitoring.CoordinationWaitEvent;
+import edu.brunobudris.sdcc.pagerank.repository.IterationRepository;
+import edu.brunobudris.sdcc.pagerank.repository.PageRankRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * SQL engine: there is no map phase and no data leaves the database, each iteration is computed by a single
+ * set-based statement (see {@link IterationRepository#computeIteration}).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SqlEngine {
+
+    private final IterationRepository iterationRepository;
+    private final PageRankRepository pageRankRepository;
+
+    @Async
+    public CompletableFuture<Integer> execute(Job job, CompressedAdjacency graph) {
+        try {
+            log.info("A SQL worker is ready");
+
+            while (!iterationRepository.isAllReduced(job.getJobId())) {
+                if (!step(job, graph.vertexCount())) {
+                    // waiting for another worker to complete the current iteration
+                    log.info("A SQL worker is waiting for an iteration to be ready");
+                    CoordinationWaitEvent.sleep("sql", "ready", 1000);
+                }
+            }
+            // all iterations completed - PageRank algorithm terminated
+            log.info("A SQL worker finished");
+            return CompletableFuture.completedFuture(1);
+        } catch (Exception exception) {
+            log.error("A SQL worker finished with error", exception);
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    /**
+     * Computes the mapped iteration of a job, or marks its ready iteration as mapped, if there is any
+     * @param job the job to be processed
+     * @param graphCardinality number of vertices of the job graph
+     * @return true if an iteration was processed, false if there was nothing to do
+     */
+    public boolean step(Job job, int graphCardinality) throws InterruptedException {
+        final var mapped = iterationRepository.getMapped(job.getJobId());
+
+        if (mapped.isPresent()) {
+            compute(job, mapped.get(), graphCardinality);
+            return true;
+        }
+
+        final var ready = iterationRepository.getReady(job.getJobId());
+
+        if (ready.isPresent()) {
+            // there is nothing to map, map votes are computed inside the iteration statement
+            iterationRepository.markIterationAsMapped(job.getJobId(), ready.get());
+            return true;
+        }
+
+        return false;
+    }
+
+    private void compute(Job job, Integer iteration, int graphCardinality) throws InterruptedException {
+        final var jobId = job.getJobId();
+        log.info("Start of computing iteration # {} of job # {}", iteration, jobId);
+
+        final var dampingFactor = new BigDecimal(job.getDampingFactor());
+        // the same operands as the Java reducers, so that both engines compute the same digits
+        final var sinkProbability = LocalIteration.sinkProbability(dampingFactor, graphCardinality);
+        final var inserted = iterationRepository.computeIteration(jobId, iteration, dampingFactor, sinkProbability);
+
+        if (pageRankRepository.countRanks(jobId, iteration) < graphCardinality) {
+            // another worker holds the iteration lock, its statement is still running
+            log.info("Iteration # {} is being computed by another worker", iteration);
+            CoordinationWaitEvent.sleep("sql", "reduced", 1000);
+            return;
+        }
+
+        var updated = iterationRepository.markIterationAsReduced(jobId, iteration);
+        if (updated > 0) {
+            log.info("Iteration # {} was marked as reduced", iteration);
+        }
+        updated = iterationRepository.markIterationAsReady(jobId, iteration + 1);
+        if (updated > 0) {
+            log.info("Iteration # {} was marked as ready", iteration + 1);
+        }
+        log.info("End of computing iteration # {}, {} ranks inserted", iteration, inserted);
+    }
+}
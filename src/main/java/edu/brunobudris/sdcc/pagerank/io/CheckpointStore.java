@@ -0,0 +1,296 @@
+package edu.brunobudris.sdcc.pagerank.io;
+
+import edu.brunobudris.sdcc.pagerank.model.Job;
+import edu.brunobudris.sdcc.pagerank.model.PageRank;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Local binary checkpoints of the rank vector. A checkpoint file contains a header (magic, version, iteration
+ * cursor, run token, fingerprint of the job and graph, vertex count), one record per vertex (vertex id, BigDecimal
+ * scale and unscaled bytes) and a CRC32 trailer computed over everything before it. The checkpoints of the default
+ * job are stored in the checkpoint directory, those of the other jobs in a sub-directory named after the job ID.
+ * A checkpoint is only restored by the run, job parameters and graph (including its vertex numbering) it was
+ * written for.
+ */
+@Component
+@Slf4j
+public class CheckpointStore {
+
+    private static final int MAGIC = 0x50524B43;
+    private static final int VERSION = 3;
+    private static final String FILE_PREFIX = "checkpoint-";
+    private static final String FILE_SUFFIX = ".bin";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    @Value("${graph.checkpoint.directory}")
+    private String directory;
+
+    @Value("${graph.checkpoint.interval}")
+    private Integer interval;
+
+    /**
+     * What a checkpoint belongs to
+     * @param runToken token of the run that created the iterations of the job, empty if they have none
+     * @param fingerprint hash of the job parameters and of the graph, vertex numbering included
+     * @param vertexCount number of vertices of the graph
+     */
+    public record Identity(String runToken, long fingerprint, int vertexCount) {
+    }
+
+    /**
+     * A restored checkpoint
+     * @param iteration iteration cursor, the ranks are those computed by this iteration
+     * @param ranks rank of every vertex
+     */
+    public record Checkpoint(int iteration, List<PageRank> ranks) {
+    }
+
+    /**
+     * @return true if a checkpoint directory is configured
+     */
+    public boolean isEnabled() {
+        return directory != null && !directory.isBlank();
+    }
+
+    /**
+     * @param iteration iteration number
+     * @return true if the rank vector of this iteration has to be checkpointed
+     */
+    public boolean isDue(Integer iteration) {
+        return isEnabled() && iteration > 0 && iteration % interval == 0;
+    }
+
+    /**
+     * @param job the job whose ranks are checkpointed
+     * @param runToken token of the run that created the iterations of the job, null if they have none
+     * @param graph the graph of the job
+     * @return the identity of the checkpoints of this run
+     */
+    public Identity identify(Job job, String runToken, CompressedAdjacency graph) {
+        final var parameters = Objects.hash(job.getGraphUrl(), job.getIterationLimit(), job.getDampingFactor());
+        return new Identity(runToken == null ? "" : runToken, graph.fingerprint() * 31 + parameters,
+                graph.vertexCount());
+    }
+
+    /**
+     * Writes the rank vector of an iteration to a temporary file, forces it to disk and atomically renames it. Every
+     * write has its own temporary file, several workers of this node may checkpoint at the same time.
+     * @param jobId job ID
+     * @param iteration iteration number (cursor)
+     * @param identity identity of the checkpoints of this run
+     * @param ranks rank of every vertex
+     */
+    public void write(Long jobId, Integer iteration, Identity identity, List<PageRank> ranks) {
+        final var target = getPath(jobId, iteration);
+        Path temporary = null;
+
+        try {
+            Files.createDirectories(target.getParent());
+            temporary = Files.createTempFile(target.getParent(), FILE_PREFIX, TEMPORARY_SUFFIX);
+
+            try (final var fos = new FileOutputStream(temporary.toFile());
+                 final var checked = new CheckedOutputStream(new BufferedOutputStream(fos), new CRC32());
+                 final var out = new DataOutputStream(checked)) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(iteration);
+                final var runToken = identity.runToken().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(runToken.length);
+                out.write(runToken);
+                out.writeLong(identity.fingerprint());
+                out.writeInt(ranks.size());
+
+                for (final var pageRank : ranks) {
+                    final var unscaled = pageRank.getValue().unscaledValue().toByteArray();
+                    out.writeLong(pageRank.getVertexId());
+                    out.writeInt(pageRank.getValue().scale());
+                    out.writeInt(unscaled.length);
+                    out.write(unscaled);
+                }
+
+                out.flush();
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+                fos.getChannel().force(true);
+            }
+
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            syncDirectory(target.getParent());
+            log.info("Checkpoint of iteration # {} written: {} vertices", iteration, ranks.size());
+
+            // only the latest checkpoint is needed to restart
+            deleteOthers(jobId, iteration);
+        } catch (IOException exception) {
+            // a missing checkpoint is not fatal, the ranks are still in the database
+            log.error("Error during checkpoint of iteration # {}", iteration, exception);
+
+            if (temporary != null) {
+                temporary.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the most recent valid checkpoint of an iteration or of one of the checkpointed iterations preceding it
+     * (the latest one may have been written on another node)
+     * @param jobId job ID
+     * @param iteration iteration number (cursor)
+     * @param identity identity of the checkpoints of this run
+     * @return the restored checkpoint, empty if there is none
+     */
+    public Optional<Checkpoint> readLatest(Long jobId, Integer iteration, Identity identity) {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+
+        // checkpoints are only written for the iterations that are multiples of the interval
+        for (int cursor = iteration - iteration % interval; cursor > 0; cursor -= interval) {
+            final var ranks = read(jobId, cursor, identity);
+
+            if (ranks.isPresent()) {
+                return Optional.of(new Checkpoint(cursor, ranks.get()));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Reads the rank vector of an iteration, if a valid checkpoint exists
+     * @param jobId job ID
+     * @param iteration iteration number
+     * @param identity identity of the checkpoints of this run
+     * @return rank of every vertex, empty if there is no checkpoint, it is corrupted or it belongs to another run
+     */
+    public Optional<List<PageRank>> read(Long jobId, Integer iteration, Identity identity) {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+
+        final var path = getPath(jobId, iteration);
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+
+        try {
+            final var data = Files.readAllBytes(path);
+            final var crc = new CRC32();
+            crc.update(data, 0, data.length - Long.BYTES);
+
+            final var buffer = ByteBuffer.wrap(data);
+            if (buffer.getLong(data.length - Long.BYTES) != crc.getValue()) {
+                log.error("Checkpoint of iteration # {} is corrupted (checksum mismatch)", iteration);
+                return Optional.empty();
+            }
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != iteration) {
+                log.error("Checkpoint of iteration # {} has an unexpected header", iteration);
+                return Optional.empty();
+            }
+
+            final var runToken = new byte[buffer.getInt()];
+            buffer.get(runToken);
+            final var fingerprint = buffer.getLong();
+            final var count = buffer.getInt();
+
+            if (!identity.runToken().equals(new String(runToken, StandardCharsets.UTF_8))
+                    || fingerprint != identity.fingerprint() || count != identity.vertexCount()) {
+                log.warn("Checkpoint of iteration # {} belongs to another run, job or graph, ignored", iteration);
+                return Optional.empty();
+            }
+            final var ranks = new ArrayList<PageRank>(count);
+
+            for (int i = 0; i < count; i++) {
+                final var vertexId = buffer.getLong();
+                final var scale = buffer.getInt();
+                final var unscaled = new byte[buffer.getInt()];
+                buffer.get(unscaled);
+
+                ranks.add(PageRank.builder()
+                        .vertexId(vertexId)
+                        .value(new BigDecimal(new BigInteger(unscaled), scale))
+                        .build());
+            }
+
+            log.info("Checkpoint of iteration # {} restored: {} vertices", iteration, count);
+            return Optional.of(ranks);
+        } catch (IOException | RuntimeException exception) {
+            log.error("Error during checkpoint restore of iteration # {}", iteration, exception);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Deletes the checkpoints of a job, e.g. those of a previous run when a new run starts, including the temporary
+     * files of interrupted writes (the sub-directories of the other jobs are kept)
+     * @param jobId job ID
+     */
+    public void clear(Long jobId) {
+        if (!isEnabled() || !Files.isDirectory(getDirectory(jobId))) {
+            return;
+        }
+
+        try {
+            delete(jobId, name -> name.startsWith(FILE_PREFIX));
+            log.info("Checkpoints of job # {} cleared", jobId);
+        } catch (IOException exception) {
+            // stale checkpoints are rejected on restore anyway
+            log.error("Error during checkpoint cleanup of job # {}", jobId, exception);
+        }
+    }
+
+    /**
+     * Deletes every complete checkpoint of a job but the one of an iteration, the temporary files of the writes in
+     * progress are kept
+     */
+    private void deleteOthers(Long jobId, Integer iteration) throws IOException {
+        final var kept = getPath(jobId, iteration).getFileName().toString();
+
+        delete(jobId, name -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX) && !name.equals(kept));
+    }
+
+    private void delete(Long jobId, Predicate<String> isDeleted) throws IOException {
+        try (final var files = Files.list(getDirectory(jobId))) {
+            files.filter(path -> Files.isRegularFile(path) && isDeleted.test(path.getFileName().toString()))
+                    .forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void syncDirectory(Path path) {
+        try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException exception) {
+            // not supported on every platform, the rename is already durable on most file systems
+        }
+    }
+
+    private Path getDirectory(Long jobId) {
+        return jobId == Job.DEFAULT_ID ? Path.of(directory) : Path.of(directory, jobId.toString());
+    }
+
+    private Path getPath(Long jobId, Integer iteration) {
+        return getDirectory(jobId).resolve(FILE_PREFIX + iteration + FILE_SUFFIX);
+    }
+}
@@ -0,0 +1,455 @@
+package edu.brunobudris.sdcc.pagerank.io;
+
+import org.jgrapht.Graph;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.zip.CRC32C;
+
+/**
+ * Immutable in-memory graph stored as compressed adjacency lists, in the WebGraph style. Vertices are numbered by
+ * increasing ID, the successor list of every vertex is sorted and stored as gaps between consecutive vertex numbers,
+ * written as variable-length integers (7 bits per byte). Gaps are small when successors are close to each other,
+ * which the vertex orderings favour: a graph takes a few bytes per edge instead of more than 100 in a JGraphT graph.
+ * <p>
+ * Layout of a successor list: the out-degree, the first successor as the zigzag-encoded difference from the vertex
+ * number, then the differences between consecutive successors minus one. Successor lists are decoded sequentially,
+ * each list is a single contiguous read. The encoded lists are limited to 2 GB.
+ */
+public class CompressedAdjacency {
+
+    private final long[] ids;
+    // start of the successor list of every vertex number in data, followed by the end of the last one
+    private final int[] offsets;
+    private final byte[] data;
+    private final long edgeCount;
+    private final long fingerprint;
+
+    private CompressedAdjacency(long[] ids, int[] offsets, byte[] data, long edgeCount) {
+        this.ids = ids;
+        this.offsets = offsets;
+        this.data = data;
+        this.edgeCount = edgeCount;
+
+        final var crc = new CRC32C();
+        crc.update(data);
+        this.fingerprint = (long) Arrays.hashCode(ids) << 32 ^ crc.getValue();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param graph the graph to be compressed
+     * @return the compressed copy of the graph
+     */
+    public static CompressedAdjacency of(Graph<Long, DefaultEdge> graph) {
+        final var builder = builder();
+        graph.vertexSet().forEach(builder::addVertex);
+        graph.edgeSet().forEach(edge -> builder.addEdge(graph.getEdgeSource(edge), graph.getEdgeTarget(edge)));
+        return builder.build();
+    }
+
+    public int vertexCount() {
+        return ids.length;
+    }
+
+    public long edgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @return hash of the vertex IDs and successor lists: graphs with the same fingerprint are most likely equal,
+     * including their vertex numbering
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return memory taken by the compressed graph, in bytes
+     */
+    public long sizeInBytes() {
+        return data.length + 8L * ids.length + 4L * offsets.length;
+    }
+
+    /**
+     * @return vertex IDs in increasing order (read-only view, IDs are boxed on access)
+     */
+    public List<Long> vertices() {
+        return new AbstractList<>() {
+            @Override
+            public Long get(int index) {
+                return ids[index];
+            }
+
+            @Override
+            public int size() {
+                return ids.length;
+            }
+        };
+    }
+
+    /**
+     * @param index vertex number (0..N-1)
+     * @return vertex ID
+     */
+    public long vertexAt(int index) {
+        return ids[index];
+    }
+
+    /**
+     * @param vertex vertex ID
+     * @return vertex number (0..N-1), -1 if the graph does not contain the vertex
+     */
+    public int indexOf(long vertex) {
+        final var index = Arrays.binarySearch(ids, vertex);
+        return index < 0 ? -1 : index;
+    }
+
+    public int outDegree(long vertex) {
+        return successors(vertex).size();
+    }
+
+    /**
+     * @param vertex vertex ID
+     * @return decoding iterator over the successor IDs, in increasing order
+     * @throws IllegalArgumentException if the graph does not contain the vertex
+     */
+    public SuccessorIterator successors(long vertex) {
+        return successorsAt(checkedIndexOf(vertex));
+    }
+
+    /**
+     * @param index vertex number (0..N-1)
+     * @return decoding iterator over the successors, in increasing order
+     */
+    public SuccessorIterator successorsAt(int index) {
+        return new SuccessorIterator(index);
+    }
+
+    private int checkedIndexOf(long vertex) {
+        final var index = indexOf(vertex);
+        if (index < 0) {
+            throw new IllegalArgumentException("no such vertex in graph: " + vertex);
+        }
+        return index;
+    }
+
+    /**
+     * Sequential decoder of a successor list: successor IDs by {@link #nextLong()}, vertex numbers by
+     * {@link #nextIndex()}
+     */
+    public final class SuccessorIterator implements PrimitiveIterator.OfLong {
+
+        private final int size;
+        private int position;
+        private int remaining;
+        private int current;
+
+        private SuccessorIterator(int index) {
+            position = offsets[index];
+            size = readVarint();
+            remaining = size;
+            current = index;
+        }
+
+        /**
+         * @return out-degree of the vertex
+         */
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        /**
+         * @return the vertex number of the next successor
+         */
+        public int nextIndex() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+
+            final var gap = readVarint();
+            if (remaining == size) {
+                // first successor: signed difference from the source vertex
+                current += (gap >>> 1) ^ -(gap & 1);
+            } else {
+                current += gap + 1;
+            }
+            remaining--;
+            return current;
+        }
+
+        @Override
+        public long nextLong() {
+            return ids[nextIndex()];
+        }
+
+        private int readVarint() {
+            var read = data[position++];
+            if (read >= 0) {
+                // most gaps fit in a single byte
+                return read;
+            }
+
+            var value = read & 0x7F;
+            var shift = 7;
+            do {
+                read = data[position++];
+                value |= (read & 0x7F) << shift;
+                shift += 7;
+            } while (read < 0);
+            return value;
+        }
+    }
+
+    /**
+     * Collects the vertices and edges of a graph in any order, edges as pairs of primitive IDs (16 bytes per edge
+     * until the graph is built). Like a simple directed graph, duplicate edges are ignored and loops are rejected.
+     * <p>
+     * The build does not copy the edges: the distinct vertex IDs are collected in a hash set (memory proportional to
+     * the vertices), then the source array is rewritten in place as the sorted edge keys. The peak stays at 16 bytes
+     * per edge (the keys and the work array of the parallel sort) plus the encoded lists.
+     */
+    public static class Builder {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private long[] vertices = new long[INITIAL_CAPACITY];
+        private int vertexCount;
+        private long[] sources = new long[INITIAL_CAPACITY];
+        private long[] targets = new long[INITIAL_CAPACITY];
+        private int edgeCount;
+
+        private Builder() {
+        }
+
+        public Builder addVertex(long vertex) {
+            if (vertexCount == vertices.length) {
+                vertices = Arrays.copyOf(vertices, grow(vertices.length));
+            }
+            vertices[vertexCount++] = vertex;
+            return this;
+        }
+
+        /**
+         * Adds an edge, its vertices are added too
+         * @throws IllegalArgumentException if the edge is a loop
+         */
+        public Builder addEdge(long source, long target) {
+            if (source == target) {
+                throw new IllegalArgumentException("loops not allowed");
+            }
+
+            if (edgeCount == sources.length) {
+                sources = Arrays.copyOf(sources, grow(sources.length));
+                targets = Arrays.copyOf(targets, grow(targets.length));
+            }
+            sources[edgeCount] = source;
+            targets[edgeCount] = target;
+            edgeCount++;
+            return this;
+        }
+
+        public CompressedAdjacency build() {
+            // first pass over the edges, vertex IDs: declared vertices and edge ends, distinct and sorted
+            final var distinct = new IdSet();
+            for (int vertex = 0; vertex < vertexCount; vertex++) {
+                distinct.add(vertices[vertex]);
+            }
+            vertices = null;
+            for (int edge = 0; edge < edgeCount; edge++) {
+                distinct.add(sources[edge]);
+                distinct.add(targets[edge]);
+            }
+            final var ids = distinct.toSortedArray();
+
+            // second pass, edges as (source number, target number) keys, sorted by source then target
+            final var keys = sources;
+            for (int edge = 0; edge < edgeCount; edge++) {
+                keys[edge] = (long) Arrays.binarySearch(ids, sources[edge]) << 32
+                        | Arrays.binarySearch(ids, targets[edge]);
+            }
+            sources = null;
+            targets = null;
+            Arrays.parallelSort(keys, 0, edgeCount);
+
+            // first pass: encoded size, second pass: encoding
+            final var counter = new Encoder(null);
+            final var edges = encode(keys, edgeCount, ids.length, counter, null);
+            if (counter.position > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Compressed adjacency lists too large: " + counter.position + " bytes");
+            }
+
+            final var encoder = new Encoder(new byte[(int) counter.position]);
+            final var offsets = new int[ids.length + 1];
+            encode(keys, edgeCount, ids.length, encoder, offsets);
+
+            return new CompressedAdjacency(ids, offsets, encoder.data, edges);
+        }
+
+        /**
+         * Encodes the successor lists of every vertex, duplicate edges are skipped
+         * @param offsets filled with the start of every list, null if not needed
+         * @return number of distinct edges
+         */
+        private static long encode(long[] keys, int keyCount, int vertexCount, Encoder encoder, int[] offsets) {
+            var key = 0;
+            long edges = 0;
+
+            for (int vertex = 0; vertex < vertexCount; vertex++) {
+                if (offsets != null) {
+                    offsets[vertex] = (int) encoder.position;
+                }
+
+                final var from = key;
+                var degree = 0;
+                while (key < keyCount && (int) (keys[key] >>> 32) == vertex) {
+                    if (key == from || keys[key] != keys[key - 1]) {
+                        degree++;
+                    }
+                    key++;
+                }
+
+                encoder.putVarint(degree);
+                var previous = vertex;
+                for (int i = from; i < key; i++) {
+                    if (i > from && keys[i] == keys[i - 1]) {
+                        continue;
+                    }
+
+                    final var target = (int) keys[i];
+                    if (i == from) {
+                        final var difference = target - vertex;
+                        encoder.putVarint((difference << 1) ^ (difference >> 31));
+                    } else {
+                        encoder.putVarint(target - previous - 1);
+                    }
+                    previous = target;
+                }
+                edges += degree;
+            }
+
+            if (offsets != null) {
+                offsets[vertexCount] = (int) encoder.position;
+            }
+            return edges;
+        }
+
+        private static int grow(int capacity) {
+            if (capacity >= Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Graph too large");
+            }
+            return (int) Math.min(Integer.MAX_VALUE - 8, capacity * 2L);
+        }
+    }
+
+    /**
+     * Open addressing set of vertex IDs on a primitive array, at most half full
+     */
+    private static class IdSet {
+
+        private static final int INITIAL_CAPACITY = 1024;
+        private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+        // 0 marks an empty slot, the ID 0 is tracked apart
+        private long[] slots = new long[INITIAL_CAPACITY];
+        private int size;
+        private boolean hasZero;
+
+        private void add(long id) {
+            if (id == 0) {
+                hasZero = true;
+                return;
+            }
+
+            if (2 * (size + 1) > slots.length) {
+                if (slots.length == MAXIMUM_CAPACITY) {
+                    throw new IllegalStateException("Graph too large");
+                }
+                final var previous = slots;
+                slots = new long[previous.length * 2];
+                for (final var slot : previous) {
+                    if (slot != 0) {
+                        insert(slot);
+                    }
+                }
+            }
+
+            if (insert(id)) {
+                size++;
+            }
+        }
+
+        /**
+         * @return true if the ID was not in the set
+         */
+        private boolean insert(long id) {
+            final var mask = slots.length - 1;
+            var slot = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+
+            while (slots[slot] != 0) {
+                if (slots[slot] == id) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id;
+            return true;
+        }
+
+        private long[] toSortedArray() {
+            final var ids = new long[size + (hasZero ? 1 : 0)];
+            var index = 0;
+            for (final var slot : slots) {
+                if (slot != 0) {
+                    ids[index++] = slot;
+                }
+            }
+            if (hasZero) {
+                ids[index] = 0;
+            }
+            slots = null;
+            Arrays.sort(ids);
+            return ids;
+        }
+    }
+
+    /**
+     * Writes variable-length integers, or only counts their bytes
+     */
+    private static class Encoder {
+
+        private final byte[] data;
+        private long position;
+
+        private Encoder(byte[] data) {
+            this.data = data;
+        }
+
+        private void putVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            put((byte) value);
+        }
+
+        private void put(byte value) {
+            if (data != null) {
+                data[(int) position] = value;
+            }
+            position++;
+        }
+    }
+}
@@ -1,28 +1,101 @@
 package edu.brunobudris.sdcc.pagerank.io;
 
+import edu.brunobudris.sdcc.pagerank.monitoring.GraphParseEvent;
 import lombok.extern.slf4j.Slf4j;
 import org.jgrapht.Graph;
 import org.jgrapht.graph.DefaultEdge;
 import org.jgrapht.graph.SimpleDirectedGraph;
+import org.jgrapht.nio.dot.DOTEventDrivenImporter;
 import org.jgrapht.nio.dot.DOTImporter;
 
-import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 
 @Slf4j
 public class DotGraphBuilder {
 
-    public static Graph<Long, DefaultEdge> build(byte[] data) {
+    public static Graph<Long, DefaultEdge> build(InputStream data) {
         final var graph = new SimpleDirectedGraph<Long, DefaultEdge>(DefaultEdge.class);
         final var importer = new DOTImporter<Long, DefaultEdge>();
 
         importer.setVertexFactory(Long::valueOf);
 
-        try (final var bis = new ByteArrayInputStream(data)) {
+        final var event = new GraphParseEvent();
+        event.begin();
+
+        try (final var bis = new CountingInputStream(data)) {
             importer.importGraph(graph,bis);
+
+            event.setBytes(bis.count);
+            event.setVertices(graph.vertexSet().size());
+            event.setEdges(graph.edgeSet().size());
+            event.commit();
+            return graph;
+        } catch (Exception exception) {
+            log.error("Error during dot graph mapping", exception);
+            throw new RuntimeException(exception);
+        }
+    }
+
+    /**
+     * Streams the parsed vertices and edges into a compressed graph, without building a JGraphT graph
+     * @param data DOT graph
+     * @return the compressed graph
+     */
+    public static CompressedAdjacency buildCompressed(InputStream data) {
+        final var builder = CompressedAdjacency.builder();
+        final var importer = new DOTEventDrivenImporter();
+
+        importer.addVertexConsumer(vertex -> builder.addVertex(Long.parseLong(vertex)));
+        importer.addEdgeConsumer(edge -> builder.addEdge(Long.parseLong(edge.getFirst()),
+                Long.parseLong(edge.getSecond())));
+
+        final var event = new GraphParseEvent();
+        event.begin();
+
+        try (final var bis = new CountingInputStream(data)) {
+            importer.importInput(bis);
+            final var graph = builder.build();
+
+            event.setBytes(bis.count);
+            event.setVertices(graph.vertexCount());
+            event.setEdges(graph.edgeCount());
+            event.commit();
             return graph;
         } catch (Exception exception) {
             log.error("Error during dot graph mapping", exception);
             throw new RuntimeException(exception);
         }
     }
+
+    /**
+     * Counts the (decompressed) bytes read by the importer
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final var read = super.read();
+            if (read >= 0) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final var read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
 }
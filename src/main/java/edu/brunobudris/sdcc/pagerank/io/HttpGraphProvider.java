@@ -1,29 +1,246 @@
 package edu.brunobudris.sdcc.pagerank.io;
 
+import com.github.luben.zstd.ZstdInputStream;
+import edu.brunobudris.sdcc.pagerank.monitoring.GraphFetchEvent;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Provides the DOT graph as a stream. Remote graphs are downloaded to a temporary file (deleted when the stream is
+ * closed): large files are fetched with parallel HTTP range requests when the server supports them, every chunk
+ * being retried and resumed from its last received byte. Gzip and zstd compressed graphs are detected from their
+ * magic number and decompressed while streaming.
+ */
 @Component
 @Slf4j
 public class HttpGraphProvider {
 
-    @Value("${graph.url}")
-    private String graphUrl;
+    private static final String FILE_SCHEME = "file:";
+    private static final String BYTES_RANGE_UNIT = "bytes";
+    private static final int BUFFER_SIZE = 1 << 16;
 
-    public byte[] provide() {
-        final var template = new RestTemplate();
-        ResponseEntity<byte[]> result = template.exchange(graphUrl, HttpMethod.GET, null, byte[].class);
-        final var data = result.getBody();
+    @Value("${graph.download.parallelism}")
+    private Integer parallelism;
+
+    @Value("${graph.download.chunk-size}")
+    private DataSize chunkSize;
+
+    @Value("${graph.download.retries}")
+    private Integer retries;
+
+    /**
+     * @param graphUrl graph location (http(s) or file URL)
+     * @return the (decompressed) DOT graph data
+     */
+    public InputStream provide(String graphUrl) throws IOException {
+        final var event = new GraphFetchEvent();
+        event.begin();
+
+        final var isLocal = graphUrl.startsWith(FILE_SCHEME);
+        final var path = isLocal ? Path.of(URI.create(graphUrl)) : download(graphUrl);
+        final var size = Files.size(path);
 
-        if (data == null || data.length == 0) {
+        if (size == 0) {
+            Files.deleteIfExists(path);
             throw new RuntimeException("Data not retrieved for url: " + graphUrl);
         }
-        log.info("Graph data content size: {} byte", data.length);
+        log.info("Graph data content size: {} byte", size);
+
+        event.setUrl(graphUrl);
+        event.setBytes(size);
+        event.commit();
+
+        final var input = isLocal
+                ? Files.newInputStream(path)
+                : Files.newInputStream(path, StandardOpenOption.DELETE_ON_CLOSE);
+        return decompress(input);
+    }
+
+    private Path download(String graphUrl) throws IOException {
+        final var template = new RestTemplate();
+        final var temporary = Files.createTempFile("pagerank-graph-", ".download");
+
+        try {
+            downloadTo(template, graphUrl, temporary);
+            return temporary;
+        } catch (IOException | RuntimeException exception) {
+            Files.deleteIfExists(temporary);
+            throw exception;
+        }
+    }
+
+    private void downloadTo(RestTemplate template, String graphUrl, Path temporary) throws IOException {
+        try {
+            final var headers = template.headForHeaders(graphUrl);
+            final var length = headers.getContentLength();
+
+            if (length > chunkSize.toBytes() && BYTES_RANGE_UNIT.equalsIgnoreCase(
+                    headers.getFirst(HttpHeaders.ACCEPT_RANGES))) {
+                downloadRanges(template, graphUrl, temporary, length);
+                return;
+            }
+        } catch (RangeNotSupportedException | RestClientException exception) {
+            // HEAD or range requests are not supported, the graph is downloaded with a single request
+            log.info("Parallel download not available: {}", exception.getMessage());
+        }
+
+        downloadWhole(template, graphUrl, temporary);
+    }
+
+    private void downloadWhole(RestTemplate template, String graphUrl, Path temporary) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                template.execute(graphUrl, HttpMethod.GET,
+                        // the server may compress an uncompressed graph on the fly, detected when decompressing
+                        request -> request.getHeaders().set(HttpHeaders.ACCEPT_ENCODING, "gzip"),
+                        response -> Files.copy(response.getBody(), temporary, StandardCopyOption.REPLACE_EXISTING));
+                return;
+            } catch (RestClientException exception) {
+                retryOrThrow(graphUrl, attempt, exception);
+            }
+        }
+    }
+
+    private void downloadRanges(RestTemplate template, String graphUrl, Path temporary, long length)
+            throws IOException {
+        final var chunk = chunkSize.toBytes();
+        log.info("Downloading {} byte with {} parallel range requests of {} byte", length, parallelism, chunk);
+
+        final var executor = Executors.newFixedThreadPool(parallelism);
+        try (final var channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            final var chunks = new ArrayList<Future<?>>();
+
+            for (long start = 0; start < length; start += chunk) {
+                final var from = start;
+                final var to = Math.min(start + chunk, length) - 1;
+                chunks.add(executor.submit(() -> {
+                    downloadChunk(template, graphUrl, channel, from, to);
+                    return null;
+                }));
+            }
+
+            for (final var future : chunks) {
+                future.get();
+            }
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof RangeNotSupportedException rangeNotSupported) {
+                throw rangeNotSupported;
+            }
+            throw new IOException("Chunk download failed", exception.getCause());
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted download", exception);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Downloads the bytes [from, to] of the graph at the same position of the file, a failed request is resumed
+     * from the first byte that was not received
+     */
+    private void downloadChunk(RestTemplate template, String graphUrl, FileChannel channel, long from, long to)
+            throws IOException {
+        final var position = new long[]{from};
+
+        for (int attempt = 1; position[0] <= to; attempt++) {
+            try {
+                template.execute(graphUrl, HttpMethod.GET,
+                        request -> request.getHeaders().setRange(List.of(HttpRange.createByteRange(position[0], to))),
+                        response -> {
+                            if (response.getStatusCode().value() != HttpStatus.PARTIAL_CONTENT.value()) {
+                                throw new RangeNotSupportedException(response.getStatusCode().value());
+                            }
+
+                            final var buffer = new byte[BUFFER_SIZE];
+                            try (final var body = response.getBody()) {
+                                int read;
+                                while ((read = body.read(buffer)) > 0) {
+                                    final var remaining = ByteBuffer.wrap(buffer, 0, read);
+                                    while (remaining.hasRemaining()) {
+                                        position[0] += channel.write(remaining, position[0]);
+                                    }
+                                }
+                            }
+                            return null;
+                        });
+
+                if (position[0] <= to) {
+                    throw new IOException("Incomplete chunk, " + (to - position[0] + 1) + " byte missing");
+                }
+            } catch (RestClientException | IOException exception) {
+                retryOrThrow(graphUrl, attempt, exception);
+            }
+        }
+    }
+
+    private void retryOrThrow(String graphUrl, int attempt, Exception exception) throws IOException {
+        if (attempt > retries) {
+            throw new IOException("Download failed after " + attempt + " attempts: " + graphUrl, exception);
+        }
+        log.info("Download attempt # {} failed, retrying: {}", attempt, exception.getMessage());
 
-        return data;
+        try {
+            Thread.sleep(1000L * attempt);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted download", interrupted);
+        }
+    }
+
+    private InputStream decompress(InputStream input) throws IOException {
+        final var buffered = new BufferedInputStream(input, BUFFER_SIZE);
+        buffered.mark(4);
+        final var magic = buffered.readNBytes(4);
+        buffered.reset();
+
+        if (magic.length >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B) {
+            log.info("Graph data is gzip compressed");
+            return new GZIPInputStream(buffered, BUFFER_SIZE);
+        }
+
+        if (magic.length == 4 && (magic[0] & 0xFF) == 0x28 && (magic[1] & 0xFF) == 0xB5
+                && (magic[2] & 0xFF) == 0x2F && (magic[3] & 0xFF) == 0xFD) {
+            log.info("Graph data is zstd compressed");
+            return new ZstdInputStream(buffered);
+        }
+
+        return buffered;
+    }
+
+    /**
+     * The server answered a range request with the whole content
+     */
+    private static class RangeNotSupportedException extends UncheckedIOException {
+
+        private RangeNotSupportedException(int status) {
+            super(new IOException("Range request answered with status " + status));
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,260 @@
+package edu.brunobudris.sdcc.pagerank.io;
+
+import edu.brunobudris.sdcc.pagerank.kernel.RankKernels;
+import edu.brunobudris.sdcc.pagerank.model.Job;
+import edu.brunobudris.sdcc.pagerank.repository.PageRankRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Exports the final rank vector to a flat binary file: one 16 byte record per vertex, a big-endian long vertex ID
+ * (as in the DOT file) followed by a big-endian IEEE 754 double rank, with no header. Downstream jobs read it with
+ * a single sequential scan (e.g. numpy dtype [('id', '>i8'), ('rank', '>f8')]). The ranks of the default job are
+ * written to the configured file, those of the other jobs to the configured file suffixed with ".{job ID}".
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class RankExporter {
+
+    static final int RECORD_SIZE = Long.BYTES + Double.BYTES;
+    private static final int BUFFER_SIZE = RECORD_SIZE * 65536;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final PageRankRepository pageRankRepository;
+    private final RankKernels rankKernels;
+
+    @Value("${graph.convergence-threshold}")
+    private Double convergenceThreshold;
+
+    @Value("${graph.export.file}")
+    private String file;
+
+    @Value("${graph.export.sort-by-rank}")
+    private boolean isSortedByRank;
+
+    @Value("${graph.export.normalize}")
+    private boolean isNormalized;
+
+    /**
+     * @return true if an export file is configured
+     */
+    public boolean isEnabled() {
+        return file != null && !file.isBlank();
+    }
+
+    /**
+     * Writes the ranks of the final iteration to a temporary file, forces it to disk and atomically renames it. The
+     * rows are written to the file as they are read, unless they have to be sorted or normalized first, in which case
+     * they are collected into primitive arrays (16 bytes per vertex)
+     * @param job the completed job
+     * @param ordering the vertex ordering applied to the graph, null if vertices were not relabelled
+     */
+    public void export(Job job, VertexOrdering ordering) throws IOException {
+        final var iterationLimit = job.getIterationLimit();
+        final var target = job.getJobId() == Job.DEFAULT_ID
+                ? Path.of(file).toAbsolutePath()
+                : Path.of(file + "." + job.getJobId()).toAbsolutePath();
+        final int size;
+
+        if (!isSortedByRank && !isNormalized) {
+            final var mass = new double[1];
+            final var count = new int[1];
+
+            try (final var writer = new RecordWriter(target)) {
+                forEachRank(job, ordering, (vertexId, rank) -> {
+                    try {
+                        writer.write(vertexId, rank);
+                    } catch (IOException exception) {
+                        throw new UncheckedIOException(exception);
+                    }
+                    mass[0] += rank;
+                    count[0]++;
+                });
+                writer.commit();
+            } catch (UncheckedIOException exception) {
+                throw exception.getCause();
+            }
+
+            logMass(iterationLimit, mass[0]);
+            size = count[0];
+        } else {
+            final var columns = new Columns();
+            forEachRank(job, ordering, columns::add);
+            final var ids = columns.ids();
+            final var values = columns.values();
+            size = values.length;
+
+            logMass(iterationLimit, rankKernels.sum(values));
+            if (isNormalized) {
+                rankKernels.normalize(values);
+            }
+
+            final var order = isSortedByRank
+                    ? sortByDecreasingValue(values)
+                    : IntStream.range(0, size).toArray();
+            write(target, ids, values, order);
+        }
+        log.info("Exported {} ranks of iteration # {} to {}", size, iterationLimit, target);
+    }
+
+    private void forEachRank(Job job, VertexOrdering ordering, PageRankRepository.RankConsumer consumer) {
+        final PageRankRepository.RankConsumer labelled = ordering == null
+                ? consumer
+                : (vertexId, rank) -> consumer.accept(ordering.toOriginal(vertexId), rank);
+
+        // in adaptive mode frozen vertices are not rewritten, their final rank is the latest one
+        if (convergenceThreshold > 0) {
+            pageRankRepository.forEachLatestPageRank(job.getJobId(), job.getIterationLimit(), labelled);
+        } else {
+            pageRankRepository.forEachPageRank(job.getJobId(), job.getIterationLimit(), labelled);
+        }
+    }
+
+    private void logMass(int iteration, double mass) {
+        // votes are truncated, the rank mass is slightly lower than one (and lower still with sink vertices)
+        log.info("Rank mass of iteration # {}: {}", iteration, mass);
+    }
+
+    /**
+     * Writes the records of the given indices, in the given order
+     */
+    static void write(Path target, long[] ids, double[] values, int[] order) throws IOException {
+        try (final var writer = new RecordWriter(target)) {
+            for (final var i : order) {
+                writer.write(ids[i], values[i]);
+            }
+            writer.commit();
+        }
+    }
+
+    /**
+     * Bottom-up merge sort of the indices of the values, on primitive arrays (no boxing, 8 bytes per value)
+     * @return indices by decreasing value, equal values in increasing index order (stable)
+     */
+    static int[] sortByDecreasingValue(double[] values) {
+        final var size = values.length;
+        var order = IntStream.range(0, size).toArray();
+        var merged = new int[size];
+
+        for (long width = 1; width < size; width *= 2) {
+            for (long start = 0; start < size; start += 2 * width) {
+                final var middle = (int) Math.min(start + width, size);
+                final var end = (int) Math.min(start + 2 * width, size);
+                var left = (int) start;
+                var right = middle;
+
+                for (int i = (int) start; i < end; i++) {
+                    // ties are taken from the left run first
+                    if (right == end
+                            || left < middle && Double.compare(values[order[left]], values[order[right]]) >= 0) {
+                        merged[i] = order[left++];
+                    } else {
+                        merged[i] = order[right++];
+                    }
+                }
+            }
+
+            final var sorted = merged;
+            merged = order;
+            order = sorted;
+        }
+        return order;
+    }
+
+    /**
+     * Vertex IDs and ranks in two growing primitive arrays
+     */
+    private static class Columns {
+
+        private long[] ids = new long[INITIAL_CAPACITY];
+        private double[] values = new double[INITIAL_CAPACITY];
+        private int size;
+
+        void add(long vertexId, double rank) {
+            if (size == values.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            ids[size] = vertexId;
+            values[size++] = rank;
+        }
+
+        long[] ids() {
+            return Arrays.copyOf(ids, size);
+        }
+
+        double[] values() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * Writes records to a temporary file next to the target, renamed to the target on commit and deleted otherwise
+     */
+    static class RecordWriter implements Closeable {
+
+        private final Path target;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private boolean isCommitted;
+
+        RecordWriter(Path target) throws IOException {
+            this.target = target;
+            this.temporary = target.resolveSibling(target.getFileName() + ".tmp");
+            Files.createDirectories(target.getParent());
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+
+        void write(long vertexId, double rank) throws IOException {
+            if (buffer.remaining() < RECORD_SIZE) {
+                drain();
+            }
+            buffer.putLong(vertexId);
+            buffer.putDouble(rank);
+        }
+
+        /**
+         * Forces the records to disk and atomically renames the temporary file to the target
+         */
+        void commit() throws IOException {
+            drain();
+            channel.force(true);
+            channel.close();
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            isCommitted = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!isCommitted) {
+                channel.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
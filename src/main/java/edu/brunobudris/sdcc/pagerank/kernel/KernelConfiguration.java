@@ -0,0 +1,22 @@
+package edu.brunobudris.sdcc.pagerank.kernel;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@Slf4j
+public class KernelConfiguration {
+
+    /**
+     * @param vectorized use the Vector API when the module is available
+     * @return the rank vector kernels shared by the engines
+     */
+    @Bean
+    public RankKernels rankKernels(@Value("${graph.vector-kernels}") boolean vectorized) {
+        final var kernels = RankKernels.create(vectorized);
+        log.info("Rank vector kernels: {}", kernels.getName());
+        return kernels;
+    }
+}
@@ -0,0 +1,50 @@
+package edu.brunobudris.sdcc.pagerank.kernel;
+
+/**
+ * Dense operations over a rank vector held in a primitive array. The vectorized implementation requires the
+ * "jdk.incubator.vector" module (JVM option --add-modules jdk.incubator.vector), otherwise the scalar one is used.
+ */
+public interface RankKernels {
+
+    String VECTOR_MODULE = "jdk.incubator.vector";
+
+    /**
+     * values[i] = values[i] * factor
+     */
+    void scale(double[] values, double factor);
+
+    /**
+     * @return the sum of all values (e.g. the rank mass)
+     */
+    double sum(double[] values);
+
+    /**
+     * Scales the values so that they sum to one (no-op if the sum is not positive)
+     */
+    default void normalize(double[] values) {
+        final var sum = sum(values);
+        if (sum > 0) {
+            scale(values, 1 / sum);
+        }
+    }
+
+    /**
+     * @return the implementation name
+     */
+    String getName();
+
+    /**
+     * @param vectorized use the vectorized implementation when the Vector API module is available
+     * @return the vectorized implementation if requested and available, the scalar one otherwise
+     */
+    static RankKernels create(boolean vectorized) {
+        if (vectorized && ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                return new VectorRankKernels();
+            } catch (LinkageError error) {
+                // the module is resolved but not usable on this platform
+            }
+        }
+        return new ScalarRankKernels();
+    }
+}
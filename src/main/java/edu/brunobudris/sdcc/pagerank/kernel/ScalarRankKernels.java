@@ -0,0 +1,28 @@
+package edu.brunobudris.sdcc.pagerank.kernel;
+
+/**
+ * Plain loops, the reference implementation and the fallback when the Vector API is not available
+ */
+public class ScalarRankKernels implements RankKernels {
+
+    @Override
+    public void scale(double[] values, double factor) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] *= factor;
+        }
+    }
+
+    @Override
+    public double sum(double[] values) {
+        var sum = 0.0;
+        for (final var value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,50 @@
+package edu.brunobudris.sdcc.pagerank.kernel;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD loops over the widest vector shape of the platform (e.g. 4 doubles with AVX2, 8 with AVX-512), the tail of
+ * the arrays is processed by scalar loops. Sums are accumulated lane-wise and reduced once, so they may differ from
+ * the scalar results in the last bits. Scaling is exact.
+ */
+public class VectorRankKernels implements RankKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void scale(double[] values, double factor) {
+        final var bound = SPECIES.loopBound(values.length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, values, i)
+                    .mul(factor)
+                    .intoArray(values, i);
+        }
+        for (; i < values.length; i++) {
+            values[i] *= factor;
+        }
+    }
+
+    @Override
+    public double sum(double[] values) {
+        final var bound = SPECIES.loopBound(values.length);
+        var accumulator = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            accumulator = accumulator.add(DoubleVector.fromArray(SPECIES, values, i));
+        }
+
+        var sum = accumulator.reduceLanes(VectorOperators.ADD);
+        for (; i < values.length; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public String getName() {
+        return "vector (" + SPECIES.length() + " x double)";
+    }
+}
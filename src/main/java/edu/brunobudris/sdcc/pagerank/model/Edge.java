@@ -0,0 +1,15 @@
+package edu.brunobudris.sdcc.pagerank.model;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@Builder
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class Edge {
+    Long sourceId;
+    Long targetId;
+}
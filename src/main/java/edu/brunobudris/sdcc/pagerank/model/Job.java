@@ -0,0 +1,24 @@
+package edu.brunobudris.sdcc.pagerank.model;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@Builder
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class Job {
+
+    /**
+     * ID of the job configured by the application properties (single job mode)
+     */
+    public static final long DEFAULT_ID = 1L;
+
+    Long jobId;
+    String graphUrl;
+    Integer iterationLimit;
+    Double dampingFactor;
+    JobStatus status;
+}
@@ -0,0 +1,20 @@
+package edu.brunobudris.sdcc.pagerank.model;
+
+public enum JobStatus {
+    /**
+     * submitted, not claimed by any worker yet
+     */
+    PENDING,
+    /**
+     * claimed at least once, some iterations are not reduced
+     */
+    RUNNING,
+    /**
+     * all iterations reduced
+     */
+    COMPLETED,
+    /**
+     * a worker failed while processing the job, it is no longer scheduled
+     */
+    FAILED
+}
@@ -12,6 +12,7 @@ import java.math.BigDecimal;
 @Builder
 @FieldDefaults(level = AccessLevel.PRIVATE)
 public class MapVote {
+    Long sourceId;
     Long targetId;
     BigDecimal value;
 }
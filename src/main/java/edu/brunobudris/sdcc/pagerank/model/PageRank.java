@@ -14,4 +14,6 @@ import java.math.BigDecimal;
 public class PageRank {
     Long vertexId;
     BigDecimal value;
+    Integer iteration;
+    boolean frozen;
 }
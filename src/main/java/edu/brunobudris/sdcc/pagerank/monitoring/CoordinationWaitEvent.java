@@ -0,0 +1,41 @@
+package edu.brunobudris.sdcc.pagerank.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("edu.brunobudris.sdcc.pagerank.CoordinationWait")
+@Label("Coordination Wait")
+@Description("A worker sleeping while waiting for another worker to complete a phase")
+@Category({"PageRank", "Map Reduce"})
+@StackTrace(false)
+public class CoordinationWaitEvent extends Event {
+
+    @Label("Worker")
+    private String worker;
+
+    @Label("Awaited Phase")
+    private String phase;
+
+    /**
+     * Sleeps and records the wait
+     * @param worker worker type (mapper, reducer, ...)
+     * @param phase the phase that is awaited
+     * @param millis sleep time in milliseconds
+     * @throws InterruptedException if the worker is interrupted while sleeping
+     */
+    public static void sleep(String worker, String phase, long millis) throws InterruptedException {
+        final var event = new CoordinationWaitEvent();
+        event.begin();
+        Thread.sleep(millis);
+
+        if (event.shouldCommit()) {
+            event.worker = worker;
+            event.phase = phase;
+            event.commit();
+        }
+    }
+}
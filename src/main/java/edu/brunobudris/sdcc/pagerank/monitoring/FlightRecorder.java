@@ -0,0 +1,60 @@
+package edu.brunobudris.sdcc.pagerank.monitoring;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Continuous JFR recording of the whole run (JVM events of the "default" profile and the PageRank events), started
+ * with the application context and dumped to a file when the application exits.
+ */
+@Component
+@Slf4j
+public class FlightRecorder {
+
+    @Value("${graph.flight-recorder.enabled}")
+    private boolean isEnabled;
+
+    @Value("${graph.flight-recorder.file}")
+    private String file;
+
+    @Value("${graph.flight-recorder.max-age}")
+    private Duration maxAge;
+
+    private Recording recording;
+
+    @PostConstruct
+    public void start() throws Exception {
+        if (!isEnabled) {
+            return;
+        }
+
+        recording = new Recording(Configuration.getConfiguration("default"));
+        recording.setName("pagerank");
+        recording.setToDisk(true);
+        recording.setMaxAge(maxAge);
+        recording.setDestination(Path.of(file));
+        recording.setDumpOnExit(true);
+        recording.start();
+        log.info("Flight recording started, destination: {}", file);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (recording == null) {
+            return;
+        }
+
+        // the recording is written to its destination when stopped
+        recording.stop();
+        recording.close();
+        log.info("Flight recording written to {}", file);
+    }
+}
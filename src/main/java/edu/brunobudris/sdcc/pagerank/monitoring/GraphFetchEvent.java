@@ -0,0 +1,26 @@
+package edu.brunobudris.sdcc.pagerank.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+@Name("edu.brunobudris.sdcc.pagerank.GraphFetch")
+@Label("Graph Fetch")
+@Description("Download of the DOT graph")
+@Category({"PageRank", "Graph"})
+@StackTrace(false)
+@Setter
+public class GraphFetchEvent extends Event {
+
+    @Label("URL")
+    private String url;
+
+    @Label("Bytes")
+    @DataAmount
+    private long bytes;
+}
@@ -0,0 +1,29 @@
+package edu.brunobudris.sdcc.pagerank.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+@Name("edu.brunobudris.sdcc.pagerank.GraphParse")
+@Label("Graph Parse")
+@Description("Import of the DOT graph into memory")
+@Category({"PageRank", "Graph"})
+@StackTrace(false)
+@Setter
+public class GraphParseEvent extends Event {
+
+    @Label("Bytes")
+    @DataAmount
+    private long bytes;
+
+    @Label("Vertices")
+    private int vertices;
+
+    @Label("Edges")
+    private long edges;
+}
@@ -0,0 +1,84 @@
+package edu.brunobudris.sdcc.pagerank.monitoring;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link NamedParameterJdbcTemplate} recording a {@link RepositoryCallEvent} for every statement issued by the
+ * repositories. When no recording is running an event is never committed and the overhead is negligible.
+ */
+public class InstrumentedJdbcTemplate extends NamedParameterJdbcTemplate {
+
+    public InstrumentedJdbcTemplate(JdbcOperations jdbcOperations) {
+        super(jdbcOperations);
+    }
+
+    @Override
+    public <T> List<T> query(String sql, SqlParameterSource paramSource, RowMapper<T> rowMapper)
+            throws DataAccessException {
+        final var event = new RepositoryCallEvent();
+        event.begin();
+        final var result = super.query(sql, paramSource, rowMapper);
+        commit(event, sql, 1, result.size());
+        return result;
+    }
+
+    @Override
+    public void query(String sql, SqlParameterSource paramSource, RowCallbackHandler rowCallbackHandler)
+            throws DataAccessException {
+        final var event = new RepositoryCallEvent();
+        final var rows = new int[1];
+        event.begin();
+        super.query(sql, paramSource, (RowCallbackHandler) rs -> {
+            rows[0]++;
+            rowCallbackHandler.processRow(rs);
+        });
+        commit(event, sql, 1, rows[0]);
+    }
+
+    @Override
+    public <T> T queryForObject(String sql, SqlParameterSource paramSource, RowMapper<T> rowMapper)
+            throws DataAccessException {
+        final var event = new RepositoryCallEvent();
+        event.begin();
+        final var result = super.queryForObject(sql, paramSource, rowMapper);
+        commit(event, sql, 1, 1);
+        return result;
+    }
+
+    @Override
+    public int update(String sql, SqlParameterSource paramSource) throws DataAccessException {
+        final var event = new RepositoryCallEvent();
+        event.begin();
+        final var result = super.update(sql, paramSource);
+        commit(event, sql, 1, result);
+        return result;
+    }
+
+    @Override
+    public int[] batchUpdate(String sql, SqlParameterSource[] batchArgs) {
+        final var event = new RepositoryCallEvent();
+        event.begin();
+        final var result = super.batchUpdate(sql, batchArgs);
+        // the driver may report Statement.SUCCESS_NO_INFO (-2) instead of a row count
+        commit(event, sql, batchArgs.length, Arrays.stream(result).map(count -> Math.max(count, 0)).sum());
+        return result;
+    }
+
+    private void commit(RepositoryCallEvent event, String sql, int batchSize, int rows) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.setStatement(sql);
+            event.setBatchSize(batchSize);
+            event.setRows(rows);
+            event.commit();
+        }
+    }
+}
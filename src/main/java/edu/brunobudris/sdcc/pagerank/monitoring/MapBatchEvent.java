@@ -0,0 +1,29 @@
+package edu.brunobudris.sdcc.pagerank.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Getter;
+import lombok.Setter;
+
+@Name("edu.brunobudris.sdcc.pagerank.MapBatch")
+@Label("Map Batch")
+@Description("Vertices mapped between two coordination checks")
+@Category({"PageRank", "Map Reduce"})
+@StackTrace(false)
+@Getter
+@Setter
+public class MapBatchEvent extends Event {
+
+    @Label("Iteration")
+    private int iteration;
+
+    @Label("Vertices")
+    private int vertices;
+
+    @Label("Votes")
+    private int votes;
+}
@@ -0,0 +1,20 @@
+package edu.brunobudris.sdcc.pagerank.monitoring;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+@Configuration
+public class MonitoringConfiguration {
+
+    /**
+     * Replaces the auto-configured template injected in the repositories
+     * @param jdbcTemplate the auto-configured JDBC template
+     * @return a template recording JFR events
+     */
+    @Bean
+    public NamedParameterJdbcTemplate namedParameterJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        return new InstrumentedJdbcTemplate(jdbcTemplate);
+    }
+}
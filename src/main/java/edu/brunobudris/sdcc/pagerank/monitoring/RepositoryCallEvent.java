@@ -0,0 +1,28 @@
+package edu.brunobudris.sdcc.pagerank.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import lombok.Setter;
+
+/**
+ * A JDBC round-trip. The stack trace identifies the repository method that issued the statement.
+ */
+@Name("edu.brunobudris.sdcc.pagerank.RepositoryCall")
+@Label("Repository Call")
+@Description("JDBC statement issued by a repository")
+@Category({"PageRank", "Database"})
+@Setter
+public class RepositoryCallEvent extends Event {
+
+    @Label("Statement")
+    private String statement;
+
+    @Label("Batch Size")
+    private int batchSize;
+
+    @Label("Rows")
+    private int rows;
+}
@@ -0,0 +1,85 @@
+package edu.brunobudris.sdcc.pagerank.repository;
+
+import edu.brunobudris.sdcc.pagerank.model.Edge;
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Map;
+
+@Repository
+@RequiredArgsConstructor
+public class EdgeRepository {
+
+    private static final String QUERY_COUNT_VERTICES = "SELECT COUNT(1) FROM vertex"
+            + " WHERE job_id = :job_id";
+
+    private static final String QUERY_INSERT_VERTEX = "INSERT INTO vertex"
+            + " (job_id, vertex_id, out_degree)"
+            + " VALUES (:job_id, :vertex_id, :out_degree)"
+            + " ON CONFLICT DO NOTHING";
+
+    private static final String QUERY_INSERT_EDGE = "INSERT INTO edge"
+            + " (job_id, source_id, target_id)"
+            + " VALUES (:job_id, :source_id, :target_id)"
+            + " ON CONFLICT DO NOTHING";
+
+    private static final String JOB_ID_PARAM = "job_id";
+    private static final String VERTEX_ID_PARAM = "vertex_id";
+    private static final String OUT_DEGREE_PARAM = "out_degree";
+    private static final String SOURCE_ID_PARAM = "source_id";
+    private static final String TARGET_ID_PARAM = "target_id";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Counts the total number of records of a job in the "vertex" table
+     * @param jobId job ID
+     * @return zero or positive integer
+     */
+    public int countVertices(Long jobId) {
+        try {
+            final var count = jdbcTemplate.queryForObject(QUERY_COUNT_VERTICES,
+                    new MapSqlParameterSource(JOB_ID_PARAM, jobId), Integer.class);
+            return count == null ? 0 : count;
+        } catch (EmptyResultDataAccessException exception) {
+            return 0;
+        }
+    }
+
+    /**
+     * Batch insert into the "vertex" table, vertices already inserted by another node are ignored
+     * @param jobId job ID
+     * @param outDegrees number of outgoing edges by vertex ID
+     */
+    public void insertVertices(Long jobId, Map<Long, Integer> outDegrees) {
+        final var params = outDegrees.entrySet().stream()
+                .map(entry -> new MapSqlParameterSource()
+                        .addValue(JOB_ID_PARAM, jobId)
+                        .addValue(VERTEX_ID_PARAM, entry.getKey())
+                        .addValue(OUT_DEGREE_PARAM, entry.getValue()))
+                .toArray(SqlParameterSource[]::new);
+
+        jdbcTemplate.batchUpdate(QUERY_INSERT_VERTEX, params);
+    }
+
+    /**
+     * Batch insert into the "edge" table, edges already inserted by another node are ignored
+     * @param jobId job ID
+     * @param edges graph edges
+     */
+    public void insertEdges(Long jobId, Collection<Edge> edges) {
+        final var params = edges.stream()
+                .map(edge -> new MapSqlParameterSource()
+                        .addValue(JOB_ID_PARAM, jobId)
+                        .addValue(SOURCE_ID_PARAM, edge.getSourceId())
+                        .addValue(TARGET_ID_PARAM, edge.getTargetId()))
+                .toArray(SqlParameterSource[]::new);
+
+        jdbcTemplate.batchUpdate(QUERY_INSERT_EDGE, params);
+    }
+}
@@ -7,33 +7,41 @@ import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
+import java.util.Objects;
 import java.util.Optional;
 
 @Repository
 @RequiredArgsConstructor
 public class IterationRepository {
 
-    private static final String QUERY_COUNT = "SELECT COUNT(1) FROM iteration";
+    private static final String QUERY_COUNT = "SELECT COUNT(1) FROM iteration"
+            + " WHERE job_id = :job_id";
 
     private static final String QUERY_INSERT = "INSERT INTO iteration"
-            + " (iteration, ready, mapped, reduced)"
-            + " VALUES (:iteration, false, false, false)";
+            + " (job_id, iteration, ready, mapped, reduced, run_token)"
+            + " VALUES (:job_id, :iteration, false, false, false, :run_token)"
+            + " ON CONFLICT DO NOTHING";
 
     private static final String QUERY_SET_TO_READY = "UPDATE iteration SET ready = true"
-            + " WHERE iteration = :iteration"
+            + " WHERE job_id = :job_id"
+            + " AND iteration = :iteration"
             + " AND ready = false";
 
     private static final String QUERY_SET_TO_MAPPED = "UPDATE iteration SET mapped = true"
-            + " WHERE iteration = :iteration"
+            + " WHERE job_id = :job_id"
+            + " AND iteration = :iteration"
             + " AND mapped = false";
 
     private static final String QUERY_SET_TO_REDUCED = "UPDATE iteration SET reduced = true"
-            + " WHERE iteration = :iteration"
+            + " WHERE job_id = :job_id"
+            + " AND iteration = :iteration"
             + " AND reduced = false";
 
     private static final String QUERY_SELECT_READY = "SELECT iteration"
             + " FROM iteration"
-            + " WHERE ready = true"
+            + " WHERE job_id = :job_id"
+            + " AND ready = true"
             + " AND mapped = false"
             + " AND reduced = false"
             + " ORDER BY iteration"
@@ -41,7 +49,8 @@ public class IterationRepository {
 
     private static final String QUERY_SELECT_MAPPED = "SELECT iteration"
             + " FROM iteration"
-            + " WHERE ready = true"
+            + " WHERE job_id = :job_id"
+            + " AND ready = true"
             + " AND mapped = true"
             + " AND reduced = false"
             + " ORDER BY iteration"
@@ -49,32 +58,95 @@ public class IterationRepository {
 
     private static final String QUERY_COUNT_NOT_MAPPED = "SELECT COUNT(1)"
             + " FROM iteration"
-            + " WHERE mapped = false";
+            + " WHERE job_id = :job_id"
+            + " AND mapped = false";
 
     private static final String QUERY_COUNT_NOT_REDUCED = "SELECT COUNT(1)"
             + " FROM iteration"
-            + " WHERE reduced = false";
+            + " WHERE job_id = :job_id"
+            + " AND reduced = false";
 
     private static final String QUERY_SELECT_IS_MAPPED = "SELECT mapped"
             + " FROM iteration"
-            + " WHERE iteration = :iteration";
+            + " WHERE job_id = :job_id"
+            + " AND iteration = :iteration";
+
+    // the run token of the first iteration, the rows of a run may be inserted concurrently by several workers
+    private static final String QUERY_SELECT_RUN_TOKEN = "SELECT run_token"
+            + " FROM iteration"
+            + " WHERE job_id = :job_id"
+            + " AND iteration = 1";
+
+    // the first iteration is free, or its owner has not renewed its claim within the lease (e.g. it crashed)
+    private static final String QUERY_CLAIM_FIRST_ITERATION = "UPDATE iteration SET owner = :owner, claimed = now()"
+            + " WHERE job_id = :job_id"
+            + " AND iteration = 1"
+            + " AND reduced = false"
+            + " AND (owner IS NULL OR claimed < now() - :lease * INTERVAL '1 second')";
+
+    private static final String QUERY_RENEW_CLAIM = "UPDATE iteration SET claimed = now()"
+            + " WHERE job_id = :job_id"
+            + " AND iteration = 1"
+            + " AND owner = :owner";
+
+    private static final String QUERY_LOCK_CLAIM = "SELECT reduced"
+            + " FROM iteration"
+            + " WHERE job_id = :job_id"
+            + " AND iteration = 1"
+            + " AND owner = :owner"
+            + " AND reduced = false"
+            + " FOR UPDATE";
 
     private static final String QUERY_SELECT_IS_REDUCED = "SELECT reduced"
             + " FROM iteration"
-            + " WHERE iteration = :iteration";
+            + " WHERE job_id = :job_id"
+            + " AND iteration = :iteration";
 
+    /*
+     * One PageRank iteration as a single statement: the ranks of the previous iteration are divided by the out-degree
+     * of their vertex (truncated as the mappers do), summed by target vertex, damped and added to the sink probability.
+     * Only the worker holding the transaction-scoped advisory lock of the job iteration inserts anything.
+     */
+    private static final String QUERY_COMPUTE_ITERATION = "WITH lock AS"
+            + " (SELECT pg_try_advisory_xact_lock(:lock_key) AS acquired)"
+            + " INSERT INTO page_rank (job_id, vertex_id, iteration, rank)"
+            + " SELECT :job_id, v.vertex_id, :iteration, :sink_probability + :damping_factor * COALESCE(s.total, 0)"
+            + " FROM lock, vertex v"
+            + " LEFT JOIN (SELECT e.target_id, SUM(DIV(r.rank * 1e30, d.out_degree) * 1e-30) AS total"
+            + "   FROM page_rank r"
+            + "   JOIN vertex d ON d.job_id = r.job_id AND d.vertex_id = r.vertex_id"
+            + "   JOIN edge e ON e.job_id = r.job_id AND e.source_id = r.vertex_id"
+            + "   WHERE r.job_id = :job_id"
+            + "   AND r.iteration = :iteration - 1"
+            + "   GROUP BY e.target_id) s ON s.target_id = v.vertex_id"
+            + " WHERE lock.acquired"
+            + " AND v.job_id = :job_id"
+            + " ON CONFLICT DO NOTHING";
+
+    // advisory lock key layout: namespace (bits 40-62), job ID (bits 10-39), iteration (bits 0-9)
+    private static final long COMPUTE_LOCK_KEY = 0x50524BL << 40;
+
+    private static final String JOB_ID_PARAM = "job_id";
     private static final String ITERATION_PARAM = "iteration";
+    private static final String RUN_TOKEN_PARAM = "run_token";
+    private static final String OWNER_PARAM = "owner";
+    private static final String LEASE_PARAM = "lease";
+    private static final String LOCK_KEY_PARAM = "lock_key";
+    private static final String SINK_PROBABILITY_PARAM = "sink_probability";
+    private static final String DAMPING_FACTOR_PARAM = "damping_factor";
 
 
     private final NamedParameterJdbcTemplate jdbcTemplate;
 
     /**
-     * Counts the total number of records in the "iteration" table
+     * Counts the total number of records of a job in the "iteration" table
+     * @param jobId job ID
      * @return zero or positive integer
      */
-    public int countIteration() {
+    public int countIteration(Long jobId) {
         try {
-            final var count = jdbcTemplate.queryForObject(QUERY_COUNT, new MapSqlParameterSource(), Integer.class);
+            final var count = jdbcTemplate.queryForObject(QUERY_COUNT, new MapSqlParameterSource(JOB_ID_PARAM, jobId),
+                    Integer.class);
             return count == null ? 0 : count;
         } catch (EmptyResultDataAccessException exception) {
             return 0;
@@ -82,60 +154,114 @@ public class IterationRepository {
     }
 
     /**
-     * Batch insert into the "iteration" table
+     * Batch insert into the "iteration" table, iterations inserted concurrently by another worker are ignored
+     * @param jobId job ID
      * @param iterations the total number of iterations to be inserted
-     * @return the total number of inserted records, should be same as iterations
+     * @param runToken identifies this run of the job
+     * @return one update count per iteration (0 if it already existed), should be same length as iterations
      */
-    public int[] insert(int iterations) {
+    public int[] insert(Long jobId, int iterations, String runToken) {
         final var params = new MapSqlParameterSource[iterations];
 
         for (int iteration = 0; iteration < iterations; iteration++) {
-            params[iteration] = new MapSqlParameterSource()
-                    .addValue(ITERATION_PARAM, iteration + 1);
+            params[iteration] = getParams(jobId, iteration + 1).addValue(RUN_TOKEN_PARAM, runToken);
         }
 
         return jdbcTemplate.batchUpdate(QUERY_INSERT, params);
     }
 
+    /**
+     * @param jobId job ID
+     * @return the token of the run that created the iterations of the job, empty if they have none (created before
+     * run tokens were introduced)
+     */
+    public Optional<String> getRunToken(Long jobId) {
+        return jdbcTemplate.queryForList(QUERY_SELECT_RUN_TOKEN, new MapSqlParameterSource(JOB_ID_PARAM, jobId),
+                        String.class).stream()
+                .filter(Objects::nonNull)
+                .findFirst();
+    }
+
+    /**
+     * Claims the first iteration of a job, if it is not reduced and not claimed by another owner whose claim is still
+     * valid
+     * @param jobId job ID
+     * @param owner identifies the claiming worker
+     * @param leaseSeconds a claim that has not been renewed for this long may be taken over
+     * @return 1 if the first iteration was claimed, 0 otherwise
+     */
+    public int claimFirstIteration(Long jobId, String owner, int leaseSeconds) {
+        return jdbcTemplate.update(QUERY_CLAIM_FIRST_ITERATION,
+                getParams(jobId, 1)
+                        .addValue(OWNER_PARAM, owner)
+                        .addValue(LEASE_PARAM, leaseSeconds));
+    }
+
+    /**
+     * Renews the claim of the first iteration of a job
+     * @param jobId job ID
+     * @param owner identifies the claiming worker
+     * @return 1 if the claim was renewed, 0 if it was taken over by another worker
+     */
+    public int renewClaim(Long jobId, String owner) {
+        return jdbcTemplate.update(QUERY_RENEW_CLAIM, getParams(jobId, 1).addValue(OWNER_PARAM, owner));
+    }
+
+    /**
+     * Locks the first iteration of a job until the end of the current transaction, if it is still claimed by an owner
+     * and not reduced
+     * @param jobId job ID
+     * @param owner identifies the claiming worker
+     * @return true if the first iteration is locked, false if the claim was taken over or the iteration is reduced
+     */
+    public boolean lockClaim(Long jobId, String owner) {
+        return !jdbcTemplate.queryForList(QUERY_LOCK_CLAIM, getParams(jobId, 1).addValue(OWNER_PARAM, owner),
+                Boolean.class).isEmpty();
+    }
+
     /**
      * Mark an iteration as 'ready' (to be mapped)
+     * @param jobId job ID
      * @param iteration iteration number
      * @return 1 if the iteration was successfully marked as ready (if it has not already been marked as ready),
      * 0 otherwise.
      */
-    public int markIterationAsReady(Integer iteration) {
-        return jdbcTemplate.update(QUERY_SET_TO_READY, new MapSqlParameterSource(ITERATION_PARAM, iteration));
+    public int markIterationAsReady(Long jobId, Integer iteration) {
+        return jdbcTemplate.update(QUERY_SET_TO_READY, getParams(jobId, iteration));
     }
 
     /**
      * Mark an iteration as 'mapped'
+     * @param jobId job ID
      * @param iteration iteration number
      * @return 1 if the iteration was successfully marked as mapped (if it has not already been marked as mapped),
      * 0 otherwise.
      */
-    public int markIterationAsMapped(Integer iteration) {
-        return jdbcTemplate.update(QUERY_SET_TO_MAPPED, new MapSqlParameterSource(ITERATION_PARAM, iteration));
+    public int markIterationAsMapped(Long jobId, Integer iteration) {
+        return jdbcTemplate.update(QUERY_SET_TO_MAPPED, getParams(jobId, iteration));
     }
 
     /**
      * Mark an iteration as 'reduced'
+     * @param jobId job ID
      * @param iteration iteration number
      * @return 1 if the iteration was successfully marked as reduced (if it has not already been marked as reduced),
      * 0 otherwise.
      */
-    public int markIterationAsReduced(Integer iteration) {
-        return jdbcTemplate.update(QUERY_SET_TO_REDUCED, new MapSqlParameterSource(ITERATION_PARAM, iteration));
+    public int markIterationAsReduced(Long jobId, Integer iteration) {
+        return jdbcTemplate.update(QUERY_SET_TO_REDUCED, getParams(jobId, iteration));
     }
 
     /**
      * Get an iteration that is ready to be mapped. If there are several such iterations, the one with the
      * lowest iteration number is selected
+     * @param jobId job ID
      * @return an iteration if there is any
      */
-    public Optional<Integer> getReady() {
+    public Optional<Integer> getReady(Long jobId) {
         try {
             return Optional.ofNullable(jdbcTemplate.queryForObject(QUERY_SELECT_READY,
-                    new MapSqlParameterSource(), getIterationRowMapper()));
+                    new MapSqlParameterSource(JOB_ID_PARAM, jobId), getIterationRowMapper()));
         } catch (EmptyResultDataAccessException exception) {
             return Optional.empty();
         }
@@ -144,12 +270,13 @@ public class IterationRepository {
     /**
      * Get an iteration that is mapped and ready to be reduced. If there are several such iterations, the one with the
      * lowest iteration number is selected
+     * @param jobId job ID
      * @return an iteration if there is any
      */
-    public Optional<Integer> getMapped() {
+    public Optional<Integer> getMapped(Long jobId) {
         try {
             return Optional.ofNullable(jdbcTemplate.queryForObject(QUERY_SELECT_MAPPED,
-                    new MapSqlParameterSource(), getIterationRowMapper()));
+                    new MapSqlParameterSource(JOB_ID_PARAM, jobId), getIterationRowMapper()));
         } catch (EmptyResultDataAccessException exception) {
             return Optional.empty();
         }
@@ -157,12 +284,13 @@ public class IterationRepository {
 
     /**
      * Checks if an iteration is mapped
+     * @param jobId job ID
      * @param iteration iteration number
      * @return true if iteration is marked as mapped, false otherwise
      */
-    public boolean isMapped(Integer iteration) {
+    public boolean isMapped(Long jobId, Integer iteration) {
         final var result = jdbcTemplate.queryForObject(QUERY_SELECT_IS_MAPPED,
-                new MapSqlParameterSource(ITERATION_PARAM, iteration),
+                getParams(jobId, iteration),
                 Boolean.class);
 
         if (result == null) {
@@ -174,12 +302,13 @@ public class IterationRepository {
 
     /**
      * Checks if an iteration is reduced
+     * @param jobId job ID
      * @param iteration iteration number
      * @return true if iteration is marked as reduced, false otherwise
      */
-    public boolean isReduced(Integer iteration) {
+    public boolean isReduced(Long jobId, Integer iteration) {
         final var result = jdbcTemplate.queryForObject(QUERY_SELECT_IS_REDUCED,
-                new MapSqlParameterSource(ITERATION_PARAM, iteration),
+                getParams(jobId, iteration),
                 Boolean.class);
 
         if (result == null) {
@@ -190,13 +319,14 @@ public class IterationRepository {
     }
 
     /**
-     * Checks if all iterations are mapped
+     * Checks if all iterations of a job are mapped
+     * @param jobId job ID
      * @return true if there is no iteration marked as not mapped, false otherwise
      */
-    public boolean isAllMapped() {
+    public boolean isAllMapped(Long jobId) {
         try {
             final var count = jdbcTemplate.queryForObject(QUERY_COUNT_NOT_MAPPED,
-                    new MapSqlParameterSource(), Integer.class);
+                    new MapSqlParameterSource(JOB_ID_PARAM, jobId), Integer.class);
             return count == null || count < 1;
         } catch (EmptyResultDataAccessException exception) {
             return true;
@@ -204,19 +334,45 @@ public class IterationRepository {
     }
 
     /**
-     * Checks if all iterations are reduced
+     * Checks if all iterations of a job are reduced
+     * @param jobId job ID
      * @return true if there is no iteration marked as not reduced, false otherwise
      */
-    public boolean isAllReduced() {
+    public boolean isAllReduced(Long jobId) {
         try {
             final var count = jdbcTemplate.queryForObject(QUERY_COUNT_NOT_REDUCED,
-                    new MapSqlParameterSource(), Integer.class);
+                    new MapSqlParameterSource(JOB_ID_PARAM, jobId), Integer.class);
             return count == null || count < 1;
         } catch (EmptyResultDataAccessException exception) {
             return true;
         }
     }
 
+    /**
+     * Computes the ranks of an iteration inside the database from the ranks of the previous iteration and the
+     * "edge" and "vertex" tables. Idempotent: ranks already inserted are ignored, and concurrent calls for the same
+     * iteration insert nothing while another worker is computing it.
+     * @param jobId job ID
+     * @param iteration iteration number
+     * @param dampingFactor damping factor of the PageRank algorithm
+     * @param sinkProbability (1 - damping factor) / graph cardinality
+     * @return the total number of inserted ranks
+     */
+    public int computeIteration(Long jobId, Integer iteration, BigDecimal dampingFactor,
+                                BigDecimal sinkProbability) {
+        return jdbcTemplate.update(QUERY_COMPUTE_ITERATION,
+                getParams(jobId, iteration)
+                        .addValue(LOCK_KEY_PARAM, COMPUTE_LOCK_KEY | (jobId << 10) | iteration)
+                        .addValue(DAMPING_FACTOR_PARAM, dampingFactor)
+                        .addValue(SINK_PROBABILITY_PARAM, sinkProbability));
+    }
+
+    private MapSqlParameterSource getParams(Long jobId, Integer iteration) {
+        return new MapSqlParameterSource()
+                .addValue(JOB_ID_PARAM, jobId)
+                .addValue(ITERATION_PARAM, iteration);
+    }
+
     private RowMapper<Integer> getIterationRowMapper() {
         return (rs,row) -> rs.getInt(ITERATION_PARAM);
     }
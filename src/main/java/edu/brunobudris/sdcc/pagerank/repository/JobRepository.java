@@ -0,0 +1,119 @@
+package edu.brunobudris.sdcc.pagerank.repository;
+
+import edu.brunobudris.sdcc.pagerank.model.Job;
+import edu.brunobudris.sdcc.pagerank.model.JobStatus;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+@RequiredArgsConstructor
+public class JobRepository {
+
+    private static final String QUERY_INSERT_IF_ABSENT = "INSERT INTO job"
+            + " (job_id, graph_url, iteration_limit, damping_factor, status)"
+            + " VALUES (:job_id, :graph_url, :iteration_limit, :damping_factor, 'RUNNING')"
+            + " ON CONFLICT DO NOTHING";
+
+    /*
+     * Fair share: the active job that has waited the longest since it was last claimed (never claimed jobs first) is
+     * claimed and moved to the back of the queue. Rows locked by a concurrent claim are skipped, so concurrent workers
+     * spread over different jobs.
+     */
+    private static final String QUERY_CLAIM = "UPDATE job SET status = 'RUNNING', last_scheduled = now()"
+            + " WHERE job_id = (SELECT job_id FROM job"
+            + "   WHERE status IN ('PENDING', 'RUNNING')"
+            + "   ORDER BY last_scheduled NULLS FIRST, job_id"
+            + "   LIMIT 1"
+            + "   FOR UPDATE SKIP LOCKED)"
+            + " RETURNING job_id, graph_url, iteration_limit, damping_factor, status";
+
+    private static final String QUERY_SET_STATUS = "UPDATE job SET status = :status"
+            + " WHERE job_id = :job_id"
+            + " AND status IN ('PENDING', 'RUNNING')";
+
+    private static final String QUERY_SELECT_ACTIVE_IDS = "SELECT job_id"
+            + " FROM job"
+            + " WHERE status IN ('PENDING', 'RUNNING')";
+
+    private static final String JOB_ID_PARAM = "job_id";
+    private static final String GRAPH_URL_PARAM = "graph_url";
+    private static final String ITERATION_LIMIT_PARAM = "iteration_limit";
+    private static final String DAMPING_FACTOR_PARAM = "damping_factor";
+    private static final String STATUS_PARAM = "status";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Insert into the "job" table as a running job, ignored if the job already exists
+     * @param job the job to be inserted
+     * @return 1 if the job was inserted, 0 otherwise
+     */
+    public int insertIfAbsent(Job job) {
+        return jdbcTemplate.update(QUERY_INSERT_IF_ABSENT,
+                new MapSqlParameterSource()
+                        .addValue(JOB_ID_PARAM, job.getJobId())
+                        .addValue(GRAPH_URL_PARAM, job.getGraphUrl())
+                        .addValue(ITERATION_LIMIT_PARAM, job.getIterationLimit())
+                        .addValue(DAMPING_FACTOR_PARAM, job.getDampingFactor()));
+    }
+
+    /**
+     * Claims the next active job in fair-share order and marks it as running
+     * @return a job if there is any pending or running job
+     */
+    public Optional<Job> claim() {
+        return jdbcTemplate.query(QUERY_CLAIM, new MapSqlParameterSource(), getRowMapper()).stream()
+                .findFirst();
+    }
+
+    /**
+     * Mark a job as completed
+     * @param jobId job ID
+     * @return 1 if the job was successfully marked as completed (if it was still active), 0 otherwise
+     */
+    public int markCompleted(Long jobId) {
+        return setStatus(jobId, JobStatus.COMPLETED);
+    }
+
+    /**
+     * Mark a job as failed
+     * @param jobId job ID
+     * @return 1 if the job was successfully marked as failed (if it was still active), 0 otherwise
+     */
+    public int markFailed(Long jobId) {
+        return setStatus(jobId, JobStatus.FAILED);
+    }
+
+    /**
+     * Retrieves the IDs of the pending and running jobs
+     * @return list of job IDs
+     */
+    public List<Long> getActiveJobIds() {
+        return jdbcTemplate.query(QUERY_SELECT_ACTIVE_IDS, new MapSqlParameterSource(),
+                (rs,row) -> rs.getLong(JOB_ID_PARAM));
+    }
+
+    private int setStatus(Long jobId, JobStatus status) {
+        return jdbcTemplate.update(QUERY_SET_STATUS,
+                new MapSqlParameterSource()
+                        .addValue(JOB_ID_PARAM, jobId)
+                        .addValue(STATUS_PARAM, status.name()));
+    }
+
+    private RowMapper<Job> getRowMapper() {
+        return (rs,row) ->
+                Job.builder()
+                        .jobId(rs.getLong(JOB_ID_PARAM))
+                        .graphUrl(rs.getString(GRAPH_URL_PARAM))
+                        .iterationLimit(rs.getInt(ITERATION_LIMIT_PARAM))
+                        .dampingFactor(rs.getDouble(DAMPING_FACTOR_PARAM))
+                        .status(JobStatus.valueOf(rs.getString(STATUS_PARAM)))
+                        .build();
+    }
+}
@@ -18,16 +18,40 @@ public class MapVoteRepository {
 
     private static final String QUERY_SELECT_MAP_VALUES = "SELECT target_id, vote"
             + " FROM map_vote"
-            + " WHERE iteration = :iteration";
+            + " WHERE job_id = :job_id"
+            + " AND iteration = :iteration";
+
+    private static final String QUERY_SELECT_LATEST_MAP_VALUES = "SELECT target_id, vote"
+            + " FROM latest_vote"
+            + " WHERE job_id = :job_id"
+            + " AND target_id IN (SELECT target_id FROM map_vote WHERE job_id = :job_id AND iteration = :iteration)";
 
     private static final String QUERY_SELECT_DISTINCT_VERTICES = "SELECT DISTINCT(source_id)"
             + " FROM map_vote"
-            + " WHERE iteration = :iteration";
+            + " WHERE job_id = :job_id"
+            + " AND iteration = :iteration";
 
     private static final String QUERY_INSERT_MAP_VALUE = "INSERT INTO map_vote"
-            + " (source_id, target_id, iteration, vote)"
-            + " VALUES (:source_id, :target_id, :iteration, :vote)";
+            + " (job_id, source_id, target_id, iteration, vote)"
+            + " VALUES (:job_id, :source_id, :target_id, :iteration, :vote)"
+            + " ON CONFLICT DO NOTHING";
+
+    // only the votes actually inserted in "map_vote" move the latest vote of their edge, and never backwards
+    private static final String QUERY_INSERT_MAP_VALUE_TRACKING_LATEST = "WITH inserted AS ("
+            + QUERY_INSERT_MAP_VALUE
+            + " RETURNING job_id, source_id, target_id, iteration, vote)"
+            + " INSERT INTO latest_vote"
+            + " (job_id, target_id, source_id, iteration, vote)"
+            + " SELECT job_id, target_id, source_id, iteration, vote FROM inserted"
+            + " ON CONFLICT (job_id, target_id, source_id) DO UPDATE"
+            + " SET iteration = EXCLUDED.iteration, vote = EXCLUDED.vote"
+            + " WHERE latest_vote.iteration < EXCLUDED.iteration";
 
+    private static final String QUERY_DELETE_BEFORE = "DELETE FROM map_vote"
+            + " WHERE job_id = :job_id"
+            + " AND iteration < :iteration";
+
+    private static final String JOB_ID_PARAM = "job_id";
     private static final String SOURCE_ID_PARAM = "source_id";
     private static final String TARGET_ID_PARAM = "target_id";
     private static final String VOTE_PARAM = "vote";
@@ -37,13 +61,31 @@ public class MapVoteRepository {
 
     /**
      * Retrieves map votes (i.e. outbound values) for a particular iteration
+     * @param jobId job ID
      * @param iteration iteration number
      * @return list of map votes
      */
-    public List<MapVote> getMapValues(Integer iteration) {
+    public List<MapVote> getMapValues(Long jobId, Integer iteration) {
         try {
             return jdbcTemplate.query(QUERY_SELECT_MAP_VALUES,
-                    new MapSqlParameterSource(ITERATION_PARAM, iteration),
+                    getParams(jobId, iteration),
+                    getRowMapper());
+        } catch (EmptyResultDataAccessException exception) {
+            return List.of();
+        }
+    }
+
+    /**
+     * Retrieves, for the vertices that received at least one new map vote in a particular iteration, the latest map
+     * vote of every inbound edge (frozen sources keep the vote of the iteration in which they were last mapped)
+     * @param jobId job ID
+     * @param iteration iteration number
+     * @return list of map votes
+     */
+    public List<MapVote> getLatestMapValues(Long jobId, Integer iteration) {
+        try {
+            return jdbcTemplate.query(QUERY_SELECT_LATEST_MAP_VALUES,
+                    getParams(jobId, iteration),
                     getRowMapper());
         } catch (EmptyResultDataAccessException exception) {
             return List.of();
@@ -52,13 +94,14 @@ public class MapVoteRepository {
 
     /**
      * Retrieves the source vertex IDs for a particular iteration (vertices for which outbound values were calculated)
+     * @param jobId job ID
      * @param iteration iteration number
      * @return list of source vertex IDs
      */
-    public List<Long> getSourcesId(Integer iteration) {
+    public List<Long> getSourcesId(Long jobId, Integer iteration) {
         try {
             return jdbcTemplate.query(QUERY_SELECT_DISTINCT_VERTICES,
-                    new MapSqlParameterSource(ITERATION_PARAM, iteration),
+                    getParams(jobId, iteration),
                     (rs,row) -> rs.getLong(SOURCE_ID_PARAM));
         } catch (EmptyResultDataAccessException exception) {
             return List.of();
@@ -66,22 +109,49 @@ public class MapVoteRepository {
     }
 
     /**
-     * Batch insert into the "map_vote" table
-     * @param sourceId source vertex ID
-     * @param targets target vertex IDs
+     * Batch insert into the "map_vote" table, map votes already inserted by another mapper are ignored
+     * @param jobId job ID
      * @param iteration iteration number
-     * @param value map vote (i.e. outbound value)
+     * @param votes map votes (i.e. outbound values) of one or more source vertices
      */
-    public void insert(Long sourceId, List<Long> targets, Integer iteration, BigDecimal value) {
-        final var params = targets.stream()
-                .map(id -> new MapSqlParameterSource()
-                        .addValue(SOURCE_ID_PARAM, sourceId)
-                        .addValue(TARGET_ID_PARAM, id)
-                        .addValue(ITERATION_PARAM, iteration)
-                        .addValue(VOTE_PARAM, value))
-                .toArray(SqlParameterSource[]::new);
+    public void insert(Long jobId, Integer iteration, List<MapVote> votes) {
+        jdbcTemplate.batchUpdate(QUERY_INSERT_MAP_VALUE, prepareVoteParams(jobId, iteration, votes));
+    }
+
+    /**
+     * Batch insert into the "map_vote" table, map votes already inserted by another mapper are ignored. In the same
+     * statement the new votes replace the latest vote of their edge (adaptive mode).
+     * @param jobId job ID
+     * @param iteration iteration number
+     * @param votes map votes (i.e. outbound values) of one or more source vertices
+     */
+    public void insertTrackingLatest(Long jobId, Integer iteration, List<MapVote> votes) {
+        jdbcTemplate.batchUpdate(QUERY_INSERT_MAP_VALUE_TRACKING_LATEST, prepareVoteParams(jobId, iteration, votes));
+    }
 
-        jdbcTemplate.batchUpdate(QUERY_INSERT_MAP_VALUE, params);
+    /**
+     * Deletes the map votes of the iterations preceding a particular iteration
+     * @param jobId job ID
+     * @param iteration iteration number (exclusive upper bound)
+     * @return the total number of deleted records
+     */
+    public int deleteBefore(Long jobId, Integer iteration) {
+        return jdbcTemplate.update(QUERY_DELETE_BEFORE, getParams(jobId, iteration));
+    }
+
+    private MapSqlParameterSource getParams(Long jobId, Integer iteration) {
+        return new MapSqlParameterSource()
+                .addValue(JOB_ID_PARAM, jobId)
+                .addValue(ITERATION_PARAM, iteration);
+    }
+
+    private SqlParameterSource[] prepareVoteParams(Long jobId, Integer iteration, List<MapVote> votes) {
+        return votes.stream()
+                .map(vote -> getParams(jobId, iteration)
+                        .addValue(SOURCE_ID_PARAM, vote.getSourceId())
+                        .addValue(TARGET_ID_PARAM, vote.getTargetId())
+                        .addValue(VOTE_PARAM, vote.getValue()))
+                .toArray(SqlParameterSource[]::new);
     }
 
     private RowMapper<MapVote> getRowMapper() {
@@ -4,6 +4,7 @@ import edu.brunobudris.sdcc.pagerank.model.PageRank;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -18,33 +19,101 @@ import java.util.List;
 @Slf4j
 public class PageRankRepository {
 
-    private static final String QUERY_COUNT_RANKS = "SELECT COUNT(1) FROM page_rank WHERE iteration = 1";
+    private static final String QUERY_COUNT_RANKS = "SELECT COUNT(1) FROM page_rank"
+            + " WHERE job_id = :job_id"
+            + " AND iteration = 1";
+
+    private static final String QUERY_COUNT_ITERATION_RANKS = "SELECT COUNT(1) FROM page_rank"
+            + " WHERE job_id = :job_id"
+            + " AND iteration = :iteration";
 
     private static final String QUERY_INSERT = "INSERT INTO page_rank"
-            + " (vertex_id, iteration, rank)"
-            + " VALUES (:vertex_id, :iteration, :rank)";
+            + " (job_id, vertex_id, iteration, rank, frozen)"
+            + " VALUES (:job_id, :vertex_id, :iteration, :rank, :frozen)";
+
+    private static final String QUERY_INSERT_IGNORE = QUERY_INSERT
+            + " ON CONFLICT DO NOTHING";
+
+    // only the rows actually inserted in "page_rank" move the latest rank, and never backwards
+    private static final String QUERY_UPSERT_LATEST = " INSERT INTO latest_rank"
+            + " (job_id, vertex_id, iteration, rank)"
+            + " SELECT job_id, vertex_id, iteration, rank FROM inserted WHERE NOT frozen"
+            + " ON CONFLICT (job_id, vertex_id) DO UPDATE"
+            + " SET iteration = EXCLUDED.iteration, rank = EXCLUDED.rank"
+            + " WHERE latest_rank.iteration < EXCLUDED.iteration";
+
+    private static final String QUERY_INSERT_TRACKING_LATEST = "WITH inserted AS ("
+            + QUERY_INSERT
+            + " RETURNING job_id, vertex_id, iteration, rank, frozen)"
+            + QUERY_UPSERT_LATEST;
+
+    private static final String QUERY_INSERT_IGNORE_TRACKING_LATEST = "WITH inserted AS ("
+            + QUERY_INSERT_IGNORE
+            + " RETURNING job_id, vertex_id, iteration, rank, frozen)"
+            + QUERY_UPSERT_LATEST;
 
     private static final String QUERY_SELECT_RANKS = "SELECT vertex_id, rank"
             + " FROM page_rank"
-            + " WHERE iteration = :iteration";
+            + " WHERE job_id = :job_id"
+            + " AND iteration = :iteration";
+
+    private static final String QUERY_SELECT_ACTIVE_RANKS = QUERY_SELECT_RANKS
+            + " AND NOT frozen";
+
+    private static final String QUERY_SELECT_LATEST_RANKS = "SELECT vertex_id, rank, iteration"
+            + " FROM latest_rank"
+            + " WHERE job_id = :job_id"
+            + " AND iteration <= :iteration";
+
+    private static final String QUERY_SELECT_LATEST_TARGET_RANKS = "SELECT vertex_id, rank, iteration"
+            + " FROM latest_rank"
+            + " WHERE job_id = :job_id"
+            + " AND iteration < :iteration"
+            + " AND vertex_id IN (SELECT target_id FROM map_vote WHERE job_id = :job_id AND iteration = :iteration)";
 
     private static final String QUERY_SELECT_DISTINCT_PAGES = "SELECT DISTINCT(vertex_id)"
             + " FROM page_rank"
-            + " WHERE iteration = :iteration";
+            + " WHERE job_id = :job_id"
+            + " AND iteration = :iteration";
 
+    private static final String QUERY_DELETE_BEFORE = "DELETE FROM page_rank"
+            + " WHERE job_id = :job_id"
+            + " AND iteration > 0"
+            + " AND iteration < :iteration";
+
+    private static final String JOB_ID_PARAM = "job_id";
     private static final String ITERATION_PARAM = "iteration";
     private static final String VERTEX_ID_PARAM = "vertex_id";
     private static final String RANK_PARAM = "rank";
+    private static final String FROZEN_PARAM = "frozen";
 
     private final NamedParameterJdbcTemplate jdbcTemplate;
 
     /**
-     * Counts the total number of records in the "page_rank" table
+     * Counts the total number of records of a job in the "page_rank" table
+     * @param jobId job ID
+     * @return zero or positive integer
+     */
+    public int countRanks(Long jobId) {
+        try {
+            final var count = jdbcTemplate.queryForObject(QUERY_COUNT_RANKS,
+                    new MapSqlParameterSource(JOB_ID_PARAM, jobId), Integer.class);
+            return count == null ? 0 : count;
+        } catch (EmptyResultDataAccessException exception) {
+            return 0;
+        }
+    }
+
+    /**
+     * Counts the records of a particular iteration in the "page_rank" table
+     * @param jobId job ID
+     * @param iteration iteration number
      * @return zero or positive integer
      */
-    public int countRanks() {
+    public int countRanks(Long jobId, Integer iteration) {
         try {
-            final var count = jdbcTemplate.queryForObject(QUERY_COUNT_RANKS, new MapSqlParameterSource(), Integer.class);
+            final var count = jdbcTemplate.queryForObject(QUERY_COUNT_ITERATION_RANKS,
+                    getParams(jobId, iteration), Integer.class);
             return count == null ? 0 : count;
         } catch (EmptyResultDataAccessException exception) {
             return 0;
@@ -53,51 +122,151 @@ public class PageRankRepository {
 
     /**
      * Batch insert into the "page_rank" table for iteration #0
+     * @param jobId job ID
      * @param vertices collection of vertices to be inserted
      * @param value value to be assigned to all vertices
      * @return the total number of inserted records, should be same as size of vertices
      */
-    public int[] insert(Collection<Long> vertices, BigDecimal value) {
-        final var params = prepareRankParams(vertices, value);
+    public int[] insert(Long jobId, Collection<Long> vertices, BigDecimal value) {
+        final var params = prepareRankParams(jobId, vertices, value);
         return jdbcTemplate.batchUpdate(QUERY_INSERT, params);
     }
 
     /**
-     * Insert into the "page_rank" table
-     * @param vertex graph vertex id
+     * Batch insert into the "page_rank" table for iteration #0, the ranks are also the first latest ranks of the
+     * vertices (adaptive mode)
+     * @param jobId job ID
+     * @param vertices collection of vertices to be inserted
+     * @param value value to be assigned to all vertices
+     * @return the total number of inserted records, should be same as size of vertices
+     */
+    public int[] insertTrackingLatest(Long jobId, Collection<Long> vertices, BigDecimal value) {
+        final var params = prepareRankParams(jobId, vertices, value);
+        return jdbcTemplate.batchUpdate(QUERY_INSERT_TRACKING_LATEST, params);
+    }
+
+    /**
+     * Batch insert into the "page_rank" table, ranks already inserted by another reducer are ignored
+     * @param jobId job ID
+     * @param iteration iteration number
+     * @param ranks vertex IDs and ranks
+     */
+    public void insert(Long jobId, Integer iteration, List<PageRank> ranks) {
+        jdbcTemplate.batchUpdate(QUERY_INSERT_IGNORE, prepareRankParams(jobId, iteration, ranks));
+    }
+
+    /**
+     * Batch insert into the "page_rank" table, ranks already inserted by another reducer are ignored. In the same
+     * statement the rewritten (not frozen) ranks replace the latest rank of their vertex (adaptive mode).
+     * @param jobId job ID
      * @param iteration iteration number
-     * @param value vertex rank
+     * @param ranks vertex IDs and ranks
      */
-    public void insert(Long vertex, Integer iteration, BigDecimal value) {
-        jdbcTemplate.update(QUERY_INSERT,
-                new MapSqlParameterSource()
-                        .addValue(VERTEX_ID_PARAM, vertex)
-                        .addValue(ITERATION_PARAM, iteration)
-                        .addValue(RANK_PARAM, value));
+    public void insertTrackingLatest(Long jobId, Integer iteration, List<PageRank> ranks) {
+        jdbcTemplate.batchUpdate(QUERY_INSERT_IGNORE_TRACKING_LATEST, prepareRankParams(jobId, iteration, ranks));
     }
 
     /**
      * Retrieves vertex IDs and corresponding ranks for a particular iteration
+     * @param jobId job ID
      * @param iteration iteration number
      * @return list of vertex ID and rank
      */
-    public List<PageRank> getPagesRank(Integer iteration) {
+    public List<PageRank> getPagesRank(Long jobId, Integer iteration) {
         return jdbcTemplate.query(QUERY_SELECT_RANKS,
-                new MapSqlParameterSource(ITERATION_PARAM, iteration),
+                getParams(jobId, iteration),
                 getRowMapper());
     }
 
+    /**
+     * Passes the ranks of a particular iteration to a consumer, one row at a time, without building a list of them
+     * @param jobId job ID
+     * @param iteration iteration number
+     * @param consumer called with the vertex ID and the rank of every row
+     */
+    public void forEachPageRank(Long jobId, Integer iteration, RankConsumer consumer) {
+        jdbcTemplate.query(QUERY_SELECT_RANKS, getParams(jobId, iteration), getRowCallbackHandler(consumer));
+    }
+
+    /**
+     * Passes, for every vertex, the most recent rank persisted up to a particular iteration to a consumer, one row at
+     * a time (adaptive mode)
+     * @param jobId job ID
+     * @param iteration iteration number (inclusive upper bound)
+     * @param consumer called with the vertex ID and the rank of every row
+     */
+    public void forEachLatestPageRank(Long jobId, Integer iteration, RankConsumer consumer) {
+        jdbcTemplate.query(QUERY_SELECT_LATEST_RANKS, getParams(jobId, iteration), getRowCallbackHandler(consumer));
+    }
+
+    /**
+     * Retrieves the ranks rewritten in a particular iteration, frozen vertices excluded (the active frontier of the
+     * adaptive mode)
+     * @param jobId job ID
+     * @param iteration iteration number
+     * @return list of vertex ID and rank
+     */
+    public List<PageRank> getActivePagesRank(Long jobId, Integer iteration) {
+        return jdbcTemplate.query(QUERY_SELECT_ACTIVE_RANKS,
+                getParams(jobId, iteration),
+                getRowMapper());
+    }
+
+    /**
+     * Retrieves, for every vertex, the most recent rank persisted up to a particular iteration. Used by the adaptive
+     * mode, where stable vertices are not rewritten and keep the rank of the iteration in which they were frozen
+     * @param jobId job ID
+     * @param iteration iteration number (inclusive upper bound)
+     * @return list of vertex ID, rank and the iteration in which that rank was persisted
+     */
+    public List<PageRank> getLatestPagesRank(Long jobId, Integer iteration) {
+        return jdbcTemplate.query(QUERY_SELECT_LATEST_RANKS,
+                getParams(jobId, iteration),
+                getLatestRowMapper());
+    }
+
+    /**
+     * Retrieves the latest rank, before a particular iteration, of the vertices that received a map vote in that
+     * iteration (adaptive mode)
+     * @param jobId job ID
+     * @param iteration iteration number (exclusive upper bound)
+     * @return list of vertex ID, rank and the iteration in which that rank was persisted
+     */
+    public List<PageRank> getLatestTargetsRank(Long jobId, Integer iteration) {
+        return jdbcTemplate.query(QUERY_SELECT_LATEST_TARGET_RANKS,
+                getParams(jobId, iteration),
+                getLatestRowMapper());
+    }
+
     /**
      * Retrieves vertex IDs for a particular iteration
+     * @param jobId job ID
      * @param iteration iteration number
      * @return list of vertex IDs
      */
-    public List<Long> getPages(Integer iteration) {
+    public List<Long> getPages(Long jobId, Integer iteration) {
         return jdbcTemplate.query(QUERY_SELECT_DISTINCT_PAGES,
-                new MapSqlParameterSource(ITERATION_PARAM, iteration),
+                getParams(jobId, iteration),
                 (rs,row) -> rs.getLong(VERTEX_ID_PARAM));
     }
 
+    /**
+     * Deletes the ranks of the intermediate iterations preceding a particular iteration (the initial ranks of
+     * iteration #0 are kept)
+     * @param jobId job ID
+     * @param iteration iteration number (exclusive upper bound)
+     * @return the total number of deleted records
+     */
+    public int deleteBefore(Long jobId, Integer iteration) {
+        return jdbcTemplate.update(QUERY_DELETE_BEFORE, getParams(jobId, iteration));
+    }
+
+    private MapSqlParameterSource getParams(Long jobId, Integer iteration) {
+        return new MapSqlParameterSource()
+                .addValue(JOB_ID_PARAM, jobId)
+                .addValue(ITERATION_PARAM, iteration);
+    }
+
     private RowMapper<PageRank> getRowMapper() {
         return (rs,row) ->
                 PageRank.builder()
@@ -106,12 +275,47 @@ public class PageRankRepository {
                         .build();
     }
 
-    private MapSqlParameterSource[] prepareRankParams(Collection<Long> vertices, BigDecimal value) {
+    private RowCallbackHandler getRowCallbackHandler(RankConsumer consumer) {
+        return rs -> consumer.accept(rs.getLong(VERTEX_ID_PARAM), rs.getDouble(RANK_PARAM));
+    }
+
+    private RowMapper<PageRank> getLatestRowMapper() {
+        return (rs,row) ->
+                PageRank.builder()
+                        .vertexId(rs.getLong(VERTEX_ID_PARAM))
+                        .value(rs.getObject(RANK_PARAM, BigDecimal.class))
+                        .iteration(rs.getInt(ITERATION_PARAM))
+                        .build();
+    }
+
+    private MapSqlParameterSource[] prepareRankParams(Long jobId, Collection<Long> vertices, BigDecimal value) {
         return vertices.stream()
-                .map(v -> new MapSqlParameterSource()
+                .map(v -> getParams(jobId, 0)
                         .addValue(VERTEX_ID_PARAM, v)
-                        .addValue(ITERATION_PARAM, 0)
-                        .addValue(RANK_PARAM, value))
+                        .addValue(RANK_PARAM, value)
+                        .addValue(FROZEN_PARAM, false))
                 .toArray(MapSqlParameterSource[]::new);
     }
+
+    private MapSqlParameterSource[] prepareRankParams(Long jobId, Integer iteration, List<PageRank> ranks) {
+        return ranks.stream()
+                .map(pageRank -> getParams(jobId, iteration)
+                        .addValue(VERTEX_ID_PARAM, pageRank.getVertexId())
+                        .addValue(RANK_PARAM, pageRank.getValue())
+                        .addValue(FROZEN_PARAM, pageRank.isFrozen()))
+                .toArray(MapSqlParameterSource[]::new);
+    }
+
+    /**
+     * Receives the ranks of a job one row at a time
+     */
+    @FunctionalInterface
+    public interface RankConsumer {
+
+        /**
+         * @param vertexId vertex ID
+         * @param rank rank of the vertex, as the closest double
+         */
+        void accept(long vertexId, double rank);
+    }
 }
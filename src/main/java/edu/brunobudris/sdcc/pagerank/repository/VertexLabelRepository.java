@@ -0,0 +1,61 @@
+package edu.brunobudris.sdcc.pagerank.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+@Repository
+@RequiredArgsConstructor
+public class VertexLabelRepository {
+
+    private static final String QUERY_COUNT_LABELS = "SELECT COUNT(1) FROM vertex_label"
+            + " WHERE job_id = :job_id";
+
+    private static final String QUERY_INSERT = "INSERT INTO vertex_label"
+            + " (job_id, vertex_id, original_id)"
+            + " VALUES (:job_id, :vertex_id, :original_id)"
+            + " ON CONFLICT DO NOTHING";
+
+    private static final String JOB_ID_PARAM = "job_id";
+    private static final String VERTEX_ID_PARAM = "vertex_id";
+    private static final String ORIGINAL_ID_PARAM = "original_id";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Counts the total number of records of a job in the "vertex_label" table
+     * @param jobId job ID
+     * @return zero or positive integer
+     */
+    public int countLabels(Long jobId) {
+        try {
+            final var count = jdbcTemplate.queryForObject(QUERY_COUNT_LABELS,
+                    new MapSqlParameterSource(JOB_ID_PARAM, jobId), Integer.class);
+            return count == null ? 0 : count;
+        } catch (EmptyResultDataAccessException exception) {
+            return 0;
+        }
+    }
+
+    /**
+     * Batch insert into the "vertex_label" table, labels already inserted by another node are ignored
+     * @param jobId job ID
+     * @param originalIds original vertex IDs indexed by the relabelled vertex ID
+     * @param from first relabelled vertex ID of the batch (inclusive)
+     * @param to last relabelled vertex ID of the batch (exclusive)
+     */
+    public void insert(Long jobId, long[] originalIds, int from, int to) {
+        final var params = new MapSqlParameterSource[to - from];
+
+        for (int vertex = from; vertex < to; vertex++) {
+            params[vertex - from] = new MapSqlParameterSource()
+                    .addValue(JOB_ID_PARAM, jobId)
+                    .addValue(VERTEX_ID_PARAM, (long) vertex)
+                    .addValue(ORIGINAL_ID_PARAM, originalIds[vertex]);
+        }
+
+        jdbcTemplate.batchUpdate(QUERY_INSERT, params);
+    }
+}
@@ -0,0 +1,198 @@
+package edu.brunobudris.sdcc.pagerank.core;
+
+import edu.brunobudris.sdcc.pagerank.Application;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.ExitCodeEvent;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ApplicationListener;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * End-to-end runs of the application on a small graph, against a PostgreSQL database. The ranks of every iteration
+ * are read back from the "page_rank" table and compared across configurations.
+ * <p>
+ * Skipped unless TEST_DB_URL is set (TEST_DB_USERNAME and TEST_DB_PASSWORD default to pagerank). Every run drops the
+ * "public" schema of that database: use a dedicated one, never the one of a deployment.
+ */
+class PageRankDatabaseTest {
+
+    private static final String DB_URL = System.getenv("TEST_DB_URL");
+    private static final String DB_USERNAME = System.getenv().getOrDefault("TEST_DB_USERNAME", "pagerank");
+    private static final String DB_PASSWORD = System.getenv().getOrDefault("TEST_DB_PASSWORD", "pagerank");
+
+    private static final int ITERATIONS = 10;
+
+    // a sink (7), an isolated vertex (6) and a vertex without incoming edges (8): in adaptive mode, vertices that
+    // receive no new vote have no row after the first iteration
+    private static final String GRAPH = """
+            digraph G {
+              1; 2; 3; 4; 5; 6; 7; 8;
+              1 -> 2; 1 -> 3;
+              2 -> 3;
+              3 -> 1; 3 -> 4; 3 -> 7;
+              4 -> 5;
+              5 -> 1; 5 -> 2; 5 -> 4;
+              8 -> 1; 8 -> 5;
+            }
+            """;
+
+    private Path graphFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        assumeTrue(DB_URL != null && !DB_URL.isBlank(), "TEST_DB_URL not set");
+        graphFile = Files.createTempFile("pagerank-test-", ".gv");
+        Files.writeString(graphFile, GRAPH, StandardCharsets.US_ASCII);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (graphFile != null) {
+            Files.deleteIfExists(graphFile);
+        }
+    }
+
+    @Test
+    void adaptiveModeWithZeroThresholdMatchesFullIterations() throws SQLException {
+        final var full = rank(Map.of());
+        // only the vertices whose rank does not change at all are frozen
+        final var adaptive = rank(Map.of("graph.convergence-threshold", Double.MIN_VALUE));
+
+        for (int iteration = 0; iteration <= ITERATIONS; iteration++) {
+            assertRanksEqual(full.get(iteration), latest(adaptive, iteration), "iteration " + iteration);
+        }
+        // the adaptive run rewrote only its frontier
+        assertTrue(adaptive.get(ITERATIONS).size() < full.get(ITERATIONS).size(), "every vertex was rewritten");
+    }
+
+    @Test
+    void frozenVerticesKeepTheirPreviousRank() throws SQLException {
+        final var ranks = rank(Map.of("graph.convergence-threshold", 1e-3));
+
+        for (int iteration = 1; iteration <= ITERATIONS; iteration++) {
+            final var previous = latest(ranks, iteration - 1);
+            final var current = ranks.getOrDefault(iteration, Map.of());
+
+            for (final var entry : current.entrySet()) {
+                if (entry.getValue().frozen()) {
+                    assertEquals(0, previous.get(entry.getKey()).rank().compareTo(entry.getValue().rank()),
+                            "vertex " + entry.getKey() + ", iteration " + iteration);
+                }
+            }
+        }
+        assertTrue(countFrozen(ranks) > 0, "no vertex was frozen");
+    }
+
+    @Test
+    void sqlEngineMatchesMapReduce() throws SQLException {
+        final var mapReduce = rank(Map.of());
+        final var sql = rank(Map.of("graph.engine", "SQL"));
+
+        // one set-based statement per iteration, with the same truncated votes and the same rounding
+        for (int iteration = 0; iteration <= ITERATIONS; iteration++) {
+            assertRanksEqual(mapReduce.get(iteration), sql.get(iteration), "iteration " + iteration);
+        }
+    }
+
+    /**
+     * Ranks the test graph in a fresh database
+     * @param overrides application properties of the run
+     * @return rank and frozen flag of the vertices rewritten in every iteration (all of them unless in adaptive mode)
+     */
+    private Map<Integer, Map<Long, Rank>> rank(Map<String, Object> overrides) throws SQLException {
+        resetDatabase();
+
+        final var properties = new HashMap<String, Object>();
+        properties.put("graph.url", graphFile.toUri().toString());
+        properties.put("graph.iteration-limit", ITERATIONS);
+        properties.put("spring.datasource.url", DB_URL);
+        properties.put("spring.datasource.username", DB_USERNAME);
+        properties.put("spring.datasource.password", DB_PASSWORD);
+        properties.put("spring.main.banner-mode", "off");
+        properties.putAll(overrides);
+
+        // the Runner logs a failure and closes the context with a non-zero exit code, without throwing
+        final var failures = new AtomicInteger();
+        new SpringApplicationBuilder(Application.class)
+                .properties(properties)
+                .listeners((ApplicationListener<ExitCodeEvent>) event -> failures.incrementAndGet())
+                .run();
+        assertEquals(0, failures.get(), "the ranking failed");
+
+        final var ranks = new TreeMap<Integer, Map<Long, Rank>>();
+        try (final var connection = connect();
+             final var statement = connection.createStatement();
+             final var rs = statement.executeQuery("SELECT iteration, vertex_id, rank, frozen FROM page_rank")) {
+            while (rs.next()) {
+                ranks.computeIfAbsent(rs.getInt("iteration"), iteration -> new TreeMap<>())
+                        .put(rs.getLong("vertex_id"), new Rank(rs.getBigDecimal("rank"), rs.getBoolean("frozen")));
+            }
+        }
+        return ranks;
+    }
+
+    /**
+     * @return the latest row of every vertex up to an iteration, the rank it has in that iteration
+     */
+    private static Map<Long, Rank> latest(Map<Integer, Map<Long, Rank>> ranks, int iteration) {
+        final var latest = new TreeMap<Long, Rank>();
+        for (int i = 0; i <= iteration; i++) {
+            latest.putAll(ranks.getOrDefault(i, Map.of()));
+        }
+        return latest;
+    }
+
+    private static void assertRanksEqual(Map<Long, Rank> expected, Map<Long, Rank> actual, String message) {
+        assertNotNull(expected, message);
+        assertNotNull(actual, message);
+        assertEquals(expected.keySet(), actual.keySet(), message);
+
+        for (final var entry : expected.entrySet()) {
+            // same digits, the scale of the column
+            assertEquals(entry.getValue().rank(), actual.get(entry.getKey()).rank(),
+                    message + ", vertex " + entry.getKey());
+        }
+    }
+
+    private static long countFrozen(Map<Integer, Map<Long, Rank>> ranks) {
+        return ranks.values().stream()
+                .flatMap(iteration -> iteration.values().stream())
+                .filter(Rank::frozen)
+                .count();
+    }
+
+    private static void resetDatabase() throws SQLException {
+        try (final var connection = connect();
+             final var statement = connection.createStatement()) {
+            // Liquibase recreates every table (its own tables included) when the application starts
+            statement.execute("DROP SCHEMA public CASCADE");
+            statement.execute("CREATE SCHEMA public");
+        }
+    }
+
+    private static Connection connect() throws SQLException {
+        return DriverManager.getConnection(DB_URL, DB_USERNAME, DB_PASSWORD);
+    }
+
+    private record Rank(BigDecimal rank, boolean frozen) {
+    }
+}
@@ -0,0 +1,153 @@
+package edu.brunobudris.sdcc.pagerank.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Compressed graphs are compared with a TreeMap of successor sets built from the same random edges
+ */
+class CompressedAdjacencyTest {
+
+    private static final int GRAPHS = 200;
+
+    @Test
+    void randomGraphsMatchReference() {
+        final var random = new Random(42);
+
+        for (int graph = 0; graph < GRAPHS; graph++) {
+            // small graphs have one-byte gaps only, large ones multi-byte gaps in both directions
+            final var vertices = graph % 10 == 0 ? 1 + random.nextInt(5000) : 1 + random.nextInt(200);
+            final var edges = random.nextInt(vertices * 8 + 1);
+            // sparse IDs, negative ones included
+            final var idRange = random.nextBoolean() ? vertices : Integer.MAX_VALUE;
+
+            final var builder = CompressedAdjacency.builder();
+            final var reference = new TreeMap<Long, TreeSet<Long>>();
+            final var ids = new ArrayList<Long>();
+
+            for (int vertex = 0; vertex < vertices; vertex++) {
+                final var id = (long) random.nextInt(idRange) - idRange / 2;
+                ids.add(id);
+                // declared vertices may repeat and may be isolated
+                builder.addVertex(id);
+                reference.computeIfAbsent(id, key -> new TreeSet<>());
+            }
+
+            for (int edge = 0; edge < edges; edge++) {
+                final var source = ids.get(random.nextInt(ids.size()));
+                // duplicates on purpose: a few repeated targets per source
+                final var target = random.nextInt(4) == 0 && !reference.get(source).isEmpty()
+                        ? reference.get(source).first()
+                        : ids.get(random.nextInt(ids.size()));
+
+                if (source.equals(target)) {
+                    assertThrows(IllegalArgumentException.class, () -> builder.addEdge(source, target));
+                    continue;
+                }
+                builder.addEdge(source, target);
+                reference.get(source).add(target);
+            }
+
+            assertMatches(reference, builder.build());
+        }
+    }
+
+    @Test
+    void firstSuccessorBeforeAndAfterSourceWithLargeGaps() {
+        final var builder = CompressedAdjacency.builder();
+        final var reference = new TreeMap<Long, TreeSet<Long>>();
+
+        for (long vertex = 0; vertex < 100_000; vertex += 3) {
+            builder.addVertex(vertex);
+            reference.put(vertex, new TreeSet<>());
+        }
+        // the middle vertex points far backwards and far forwards (zigzag first gap, multi-byte varints)
+        for (final var target : List.of(0L, 3L, 49_998L, 50_004L, 99_999L)) {
+            builder.addEdge(50_001L, target);
+            reference.get(50_001L).add(target);
+        }
+        // the last vertex only points backwards
+        builder.addEdge(99_999L, 0L);
+        reference.get(99_999L).add(0L);
+
+        assertMatches(reference, builder.build());
+    }
+
+    @Test
+    void emptyGraph() {
+        final var graph = CompressedAdjacency.builder().build();
+
+        assertEquals(0, graph.vertexCount());
+        assertEquals(0, graph.edgeCount());
+        assertEquals(-1, graph.indexOf(1));
+    }
+
+    @Test
+    void unknownVertexIsRejected() {
+        final var graph = CompressedAdjacency.builder()
+                .addEdge(1, 2)
+                .build();
+
+        assertEquals(-1, graph.indexOf(3));
+        assertThrows(IllegalArgumentException.class, () -> graph.successors(3));
+    }
+
+    @Test
+    void fingerprintDependsOnGraphNotOnInsertionOrder() {
+        final var graph = CompressedAdjacency.builder()
+                .addEdge(1, 2).addEdge(2, 3).addEdge(3, 1)
+                .build();
+        final var shuffled = CompressedAdjacency.builder()
+                .addEdge(3, 1).addEdge(1, 2).addEdge(2, 3).addEdge(1, 2)
+                .build();
+        final var other = CompressedAdjacency.builder()
+                .addEdge(1, 2).addEdge(2, 3).addEdge(1, 3)
+                .build();
+
+        assertEquals(graph.fingerprint(), shuffled.fingerprint());
+        assertNotEquals(graph.fingerprint(), other.fingerprint());
+    }
+
+    private static void assertMatches(TreeMap<Long, TreeSet<Long>> reference, CompressedAdjacency graph) {
+        assertEquals(reference.size(), graph.vertexCount());
+        assertEquals(reference.values().stream().mapToLong(TreeSet::size).sum(), graph.edgeCount());
+        assertEquals(new ArrayList<>(reference.keySet()), graph.vertices());
+
+        var index = 0;
+        for (final var entry : reference.entrySet()) {
+            final long vertex = entry.getKey();
+            final var expected = new ArrayList<>(entry.getValue());
+
+            assertEquals(index, graph.indexOf(vertex));
+            assertEquals(vertex, graph.vertexAt(index));
+            assertEquals(expected.size(), graph.outDegree(vertex));
+
+            // successor IDs
+            final var successors = graph.successors(vertex);
+            final var actual = new ArrayList<Long>();
+            while (successors.hasNext()) {
+                actual.add(successors.nextLong());
+            }
+            assertEquals(expected, actual, "successors of " + vertex);
+
+            // successor vertex numbers
+            final var indices = graph.successorsAt(index);
+            assertEquals(expected.size(), indices.size());
+            for (final var target : expected) {
+                assertEquals(graph.indexOf(target), indices.nextIndex());
+            }
+            assertFalse(indices.hasNext());
+            index++;
+        }
+    }
+}
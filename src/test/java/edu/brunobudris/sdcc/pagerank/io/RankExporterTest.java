@@ -0,0 +1,96 @@
+package edu.brunobudris.sdcc.pagerank.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * The primitive sort is compared with a stable sort of boxed indices by a reversed comparator, the export file with
+ * the records read back as big-endian values
+ */
+class RankExporterTest {
+
+    private static final int VECTORS = 500;
+
+    @Test
+    void sortMatchesBoxedReverseSort() {
+        final var random = new Random(42);
+
+        for (int vector = 0; vector < VECTORS; vector++) {
+            final var size = random.nextInt(vector % 50 == 0 ? 5000 : 100);
+            // few distinct values: many ties
+            final var distinct = 1 + random.nextInt(size + 1);
+            final var values = new double[size];
+
+            for (int i = 0; i < size; i++) {
+                values[i] = switch (random.nextInt(20)) {
+                    case 0 -> Double.NaN;
+                    case 1 -> 0.0;
+                    case 2 -> -0.0;
+                    default -> random.nextInt(distinct) / (double) distinct;
+                };
+            }
+
+            assertArrayEquals(boxedSort(values), RankExporter.sortByDecreasingValue(values));
+        }
+    }
+
+    @Test
+    void nanAndTiesOrder() {
+        final var values = new double[] {0.5, Double.NaN, 0.25, 0.5, Double.NaN, 0.0, 0.25};
+
+        // NaN is greater than any value (Double.compare), equal values keep their index order
+        assertArrayEquals(new int[] {1, 4, 0, 3, 2, 6, 5}, RankExporter.sortByDecreasingValue(values));
+    }
+
+    @Test
+    void recordsRoundTrip() throws IOException {
+        final var directory = Files.createTempDirectory("rank-export");
+        final var target = directory.resolve("ranks.bin");
+        final var ids = new long[] {0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE, 0x0102030405060708L};
+        final var values = new double[] {0.0, 1.0, Double.MIN_VALUE, Double.NaN, -0.0, 0.123456789};
+        final var order = new int[] {5, 3, 1, 0, 2, 4};
+
+        try {
+            RankExporter.write(target, ids, values, order);
+
+            assertEquals((long) order.length * RankExporter.RECORD_SIZE, Files.size(target));
+            assertFalse(Files.exists(target.resolveSibling("ranks.bin.tmp")));
+
+            final var bytes = Files.readAllBytes(target);
+            // the most significant byte first
+            assertEquals(0x01, bytes[0]);
+            assertEquals(0x08, bytes[7]);
+
+            try (final var input = new DataInputStream(Files.newInputStream(target))) {
+                for (final var i : order) {
+                    assertEquals(ids[i], input.readLong());
+                    assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(input.readDouble()));
+                }
+                assertEquals(-1, input.read());
+            }
+        } finally {
+            Files.deleteIfExists(target);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static int[] boxedSort(double[] values) {
+        final var indices = new ArrayList<Integer>();
+        for (int i = 0; i < values.length; i++) {
+            indices.add(i);
+        }
+        // List.sort is stable, a reversed comparator keeps equal values in index order
+        indices.sort(Comparator.comparing((Integer i) -> values[i]).reversed());
+        return indices.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
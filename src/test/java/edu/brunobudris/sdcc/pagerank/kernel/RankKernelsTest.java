@@ -0,0 +1,87 @@
+package edu.brunobudris.sdcc.pagerank.kernel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The vectorized kernels are compared with the scalar ones on every length up to a few vector shapes, so that the
+ * loops over full vectors, the scalar tails and the arrays shorter than a vector are all covered
+ */
+class RankKernelsTest {
+
+    // longer than 4 x 8 doubles (AVX-512), plus a few large arrays
+    private static final int[] LENGTHS = IntStream.concat(IntStream.rangeClosed(0, 67), IntStream.of(1000, 1001, 4099))
+            .toArray();
+
+    private final RankKernels scalar = new ScalarRankKernels();
+    private final RankKernels vector = RankKernels.create(true);
+    private final Random random = new Random(42);
+
+    @Test
+    void scale() {
+        assumeVector();
+
+        for (final var length : LENGTHS) {
+            final var expected = randomValues(length);
+            final var actual = expected.clone();
+
+            scalar.scale(expected, 1 / 3.0);
+            vector.scale(actual, 1 / 3.0);
+
+            // a single multiplication per value, rounded the same way
+            assertArrayEquals(expected, actual, "length " + length);
+        }
+    }
+
+    @Test
+    void sum() {
+        assumeVector();
+
+        for (final var length : LENGTHS) {
+            final var values = randomValues(length);
+
+            assertEquals(scalar.sum(values), vector.sum(values), tolerance(length), "length " + length);
+        }
+    }
+
+    @Test
+    void normalize() {
+        assumeVector();
+
+        for (final var length : LENGTHS) {
+            final var expected = randomValues(length);
+            final var actual = expected.clone();
+
+            scalar.normalize(expected);
+            vector.normalize(actual);
+
+            // the factor inherits the difference between the sums
+            for (int i = 0; i < length; i++) {
+                assertEquals(expected[i], actual[i], (length + 2) * Math.ulp(expected[i]),
+                        "length " + length + ", index " + i);
+            }
+        }
+    }
+
+    private void assumeVector() {
+        // the scalar fallback is used when the module is not added to the JVM
+        assumeTrue(vector.getName().startsWith("vector"), "Vector API module not available");
+    }
+
+    private double[] randomValues(int length) {
+        return random.doubles(length).toArray();
+    }
+
+    /**
+     * @return bound of the difference between two summation orders of values in [0, 1)
+     */
+    private static double tolerance(int length) {
+        return length * Math.ulp((double) length);
+    }
+}